@@ -0,0 +1,280 @@
+package edu.escuelaing.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Enforces the {@link Timeouts} rules for one connection. The guard wraps the
+ * socket streams to count bytes read and to mark writes in progress, and
+ * checks them once a second from the shared {@link TimingWheel} while a read
+ * phase or a write is active. A connection breaking a rule is closed, which
+ * unblocks the thread serving it. Each connection costs the guard and its two
+ * stream wrappers; starting a phase or a write after that only rearms the
+ * guard on the wheel.
+ */
+
+public class ConnectionGuard extends TimingWheel.Timeout {
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final Socket client;
+    private final Timeouts timeouts = Timeouts.getInstance();
+    private final TimingWheel wheel;
+    private final long checkIntervalMillis;
+    private volatile long bytesRead;
+    private volatile long writeStarted = NONE;
+    private volatile Timeouts.Rule closedBy;
+    // Current read phase, guarded by this
+    private Timeouts.Rule readRule;
+    private long readDeadline;
+    private long rateStarted;
+    private long rateBytes;
+
+    /**
+     * Constructor for ConnectionGuard.
+     *
+     * @param client the connection to guard
+     */
+
+    public ConnectionGuard(Socket client) {
+        this(client, TimingWheel.getInstance(), CHECK_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Constructor for ConnectionGuard with its own wheel and check interval.
+     *
+     * @param client              the connection to guard
+     * @param wheel               the wheel that runs the checks
+     * @param checkIntervalMillis the time between checks, which bounds how
+     *                            late a rule is enforced
+     */
+
+    ConnectionGuard(Socket client, TimingWheel wheel, long checkIntervalMillis) {
+        this.client = client;
+        this.wheel = wheel;
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * Wraps the connection input so the guard can measure the read rate.
+     *
+     * @param in the socket input stream
+     * @return the counting stream
+     */
+
+    public InputStream input(InputStream in) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b >= 0) {
+                    bytesRead++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n > 0) {
+                    // Only the reading thread writes the count
+                    bytesRead += n;
+                }
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    /**
+     * Wraps the connection output so each write runs under the write deadline.
+     *
+     * @param out the socket output stream
+     * @return the guarded stream
+     */
+
+    public OutputStream output(OutputStream out) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                startWrite();
+                try {
+                    out.write(b);
+                } finally {
+                    writeStarted = NONE;
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                startWrite();
+                try {
+                    out.write(b, off, len);
+                } finally {
+                    writeStarted = NONE;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    /**
+     * Tells which rule closed the connection, if any.
+     *
+     * @return the rule, or null if the guard has not closed the connection
+     */
+
+    public Timeouts.Rule closedBy() {
+        return closedBy;
+    }
+
+    /**
+     * Starts a read phase, replacing the current one. The phase deadline
+     * counts from now, and the minimum read rate applies once data arrives.
+     *
+     * @param rule {@link Timeouts.Rule#HEADER_READ},
+     *             {@link Timeouts.Rule#BODY_READ} or {@link Timeouts.Rule#IDLE}
+     */
+
+    public synchronized void expectRead(Timeouts.Rule rule) {
+        long now = TimingWheel.now();
+        long millis = timeouts.getMillis(rule);
+        readRule = rule;
+        readDeadline = millis > 0 ? now + millis : NONE;
+        rateStarted = NONE;
+        rateBytes = bytesRead;
+        if (!isArmed()) {
+            wheel.schedule(this, now + checkIntervalMillis);
+        }
+    }
+
+    /**
+     * Ends the read phase, for instance while a handler runs or once the
+     * connection only writes.
+     */
+
+    public synchronized void endRead() {
+        readRule = null;
+    }
+
+    /**
+     * Stops checking once the connection is done with. The wheel drops the
+     * guard, and with it the socket, when it next reaches its slot.
+     */
+
+    public synchronized void cancel() {
+        readRule = null;
+        wheel.cancel(this);
+    }
+
+    /**
+     * Closes the connection and stops checking. Closing a TLS connection
+     * writes close_notify, so the close runs under the write deadline: a
+     * client that has stopped reading is aborted instead of holding the
+     * thread.
+     */
+
+    public void close() {
+        endRead();
+        startWrite();
+        try {
+            client.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with a broken connection
+        } finally {
+            writeStarted = NONE;
+            cancel();
+        }
+    }
+
+    @Override
+    protected synchronized void expired(long now) {
+        if (closedBy != null) {
+            return;
+        }
+        Timeouts.Rule broken = null;
+        if (readRule != null) {
+            broken = checkRead(now);
+        }
+        long started = writeStarted;
+        long writeMillis = timeouts.getMillis(Timeouts.Rule.WRITE);
+        if (broken == null && started != NONE && writeMillis > 0 && now - started >= writeMillis) {
+            broken = Timeouts.Rule.WRITE;
+        }
+        if (broken != null) {
+            closedBy = broken;
+            timeouts.recordClosed(broken);
+            abort(client);
+        } else if (readRule != null || writeStarted != NONE) {
+            wheel.schedule(this, now + checkIntervalMillis);
+        }
+    }
+
+    private Timeouts.Rule checkRead(long now) {
+        if (readDeadline != NONE && now >= readDeadline) {
+            return readRule;
+        }
+        long minRate = timeouts.getMinReadRate();
+        if (minRate <= 0 || readRule == Timeouts.Rule.IDLE) {
+            return null;
+        }
+        long bytes = bytesRead;
+        if (rateStarted == NONE) {
+            // Waiting for the first byte is covered by the phase deadline
+            if (bytes > rateBytes) {
+                rateStarted = now;
+                rateBytes = bytes;
+            }
+        } else {
+            long elapsed = now - rateStarted;
+            if (elapsed >= timeouts.getMinReadRateGraceMillis() && (bytes - rateBytes) * 1000 < minRate * elapsed) {
+                return Timeouts.Rule.MIN_READ_RATE;
+            }
+        }
+        return null;
+    }
+
+    private void startWrite() {
+        long now = TimingWheel.now();
+        writeStarted = now;
+        // Pairs with expired(), which reads writeStarted after the wheel disarms this
+        if (!isArmed()) {
+            wheel.schedule(this, now + checkIntervalMillis);
+        }
+    }
+
+    /**
+     * Closes a connection without blocking on it, so it can be called from the
+     * wheel thread or from a thread broadcasting to many connections. A TLS
+     * connection is closed without close_notify.
+     *
+     * @param client the connection to close
+     */
+
+    static void abort(Socket client) {
+        try {
+            if (client instanceof TlsSocket tls) {
+                tls.abort();
+            } else {
+                client.close();
+            }
+        } catch (IOException ignored) {
+            // Already closed
+        }
+    }
+}
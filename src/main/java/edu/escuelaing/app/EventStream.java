@@ -0,0 +1,236 @@
+package edu.escuelaing.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-Sent Events endpoint that broadcasts to every open subscriber. Each
+ * event is encoded once and the same bytes are queued for all subscribers.
+ * Delivery runs on the writer threads shared through {@link SendQueue}, so
+ * subscribers do not hold a thread while idle. A subscriber whose queue fills
+ * up is evicted, and so is one whose write stays blocked past the write
+ * timeout, so a client that stops reading cannot hold a writer thread for
+ * long.
+ */
+
+public class EventStream {
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+    private static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 5_000;
+    private static final int MAX_BATCH = 16;
+    private static final ThreadLocal<OutputBuffer> BATCH = ThreadLocal.withInitial(() -> new OutputBuffer(4096));
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final int queueCapacity;
+    private final long writeTimeoutMillis;
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor for EventStream with the default per-subscriber queue size
+     * and write timeout.
+     */
+
+    public EventStream() {
+        this(DEFAULT_QUEUE_CAPACITY, DEFAULT_WRITE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructor for EventStream with the default write timeout.
+     *
+     * @param queueCapacity the number of events a subscriber may fall behind
+     *                      before it is evicted
+     */
+
+    public EventStream(int queueCapacity) {
+        this(queueCapacity, DEFAULT_WRITE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructor for EventStream.
+     *
+     * @param queueCapacity      the number of events a subscriber may fall
+     *                           behind before it is evicted
+     * @param writeTimeoutMillis how long a write to one subscriber may stay
+     *                           blocked before it is evicted, or 0 for no
+     *                           limit
+     */
+
+    public EventStream(int queueCapacity, long writeTimeoutMillis) {
+        this.queueCapacity = queueCapacity;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    /**
+     * Broadcasts an unnamed event.
+     *
+     * @param data the event data
+     * @throws NullPointerException if the data is null
+     */
+
+    public void send(String data) {
+        send(null, data);
+    }
+
+    /**
+     * Broadcasts a named event to every subscriber.
+     *
+     * @param event the event name, or null for the default "message" event
+     * @param data  the event data, split into one data field per line
+     * @throws NullPointerException     if the data is null
+     * @throws IllegalArgumentException if the event name contains a line break
+     */
+
+    public void send(String event, String data) {
+        Objects.requireNonNull(data, "data");
+        checkEventName(event);
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        byte[] frame = encode(event, data);
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(frame);
+        }
+    }
+
+    /**
+     * Gets the number of connected subscribers.
+     *
+     * @return the subscriber count
+     */
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Gets how many subscribers were dropped for falling too far behind or
+     * for not reading.
+     *
+     * @return the eviction count
+     */
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Sends the event stream headers and registers the connection. From here
+     * on the connection belongs to the stream and is closed by it.
+     *
+     * @param client the client socket
+     * @param out    the socket output stream
+     * @throws IOException if the headers cannot be written
+     */
+
+    void subscribe(Socket client, OutputStream out) throws IOException {
+        out.write(("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/event-stream\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Connection: keep-alive\r\n\r\n").getBytes());
+        out.flush();
+        subscribers.add(new Subscriber(client, out));
+    }
+
+    /**
+     * Encodes an event in the text/event-stream format. The data is split on
+     * CRLF, CR and LF, the line endings a client recognises, so no line of it
+     * can be read as a field of its own.
+     *
+     * @param event the event name, or null
+     * @param data  the event data
+     * @return the encoded event
+     * @throws NullPointerException     if the data is null
+     * @throws IllegalArgumentException if the event name contains a line break
+     */
+
+    static byte[] encode(String event, String data) {
+        Objects.requireNonNull(data, "data");
+        checkEventName(event);
+        OutputBuffer buf = new OutputBuffer(data.length() + 32);
+        if (event != null) {
+            buf.writeAscii("event: ");
+            buf.writeUtf8(event);
+            buf.write('\n');
+        }
+        int start = 0;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c == '\r' || c == '\n') {
+                buf.writeAscii("data: ");
+                buf.writeUtf8(data, start, i);
+                buf.write('\n');
+                if (c == '\r' && i + 1 < data.length() && data.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        buf.writeAscii("data: ");
+        buf.writeUtf8(data, start, data.length());
+        buf.writeAscii("\n\n");
+        return buf.toByteArray();
+    }
+
+    private static void checkEventName(String event) {
+        if (event != null && (event.indexOf('\r') >= 0 || event.indexOf('\n') >= 0)) {
+            throw new IllegalArgumentException("Event name must not contain a line break");
+        }
+    }
+
+    /**
+     * A connected client with its {@link SendQueue} of pending events. Events
+     * queued together are written as one batch under a single deadline.
+     */
+
+    private final class Subscriber extends SendQueue<byte[]> {
+        private final Socket client;
+        private final OutputStream out;
+
+        Subscriber(Socket client, OutputStream out) {
+            super(queueCapacity, writeTimeoutMillis);
+            this.client = client;
+            this.out = out;
+        }
+
+        @Override
+        void write(byte[] frame) throws IOException {
+            OutputBuffer batch = BATCH.get();
+            batch.reset();
+            batch.write(frame);
+            for (int i = 1; i < MAX_BATCH && (frame = poll()) != null; i++) {
+                batch.write(frame);
+            }
+            batch.writeTo(out);
+        }
+
+        @Override
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        void evict() {
+            if (close()) {
+                evictions.incrementAndGet();
+            }
+        }
+
+        @Override
+        void failed() {
+            close();
+        }
+
+        boolean close() {
+            if (!subscribers.remove(this)) {
+                return false;
+            }
+            clear();
+            ConnectionGuard.abort(client);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package edu.escuelaing.app;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Per-thread state reused across HTTP exchanges. Each worker thread keeps one
+ * instance holding its request, response and I/O buffers, so serving a
+ * connection does not allocate them again.
+ */
+
+public class Exchange {
+    private static final ThreadLocal<Exchange> CURRENT = ThreadLocal.withInitial(Exchange::new);
+    private static final int INPUT_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private final byte[] input = new byte[INPUT_SIZE];
+    private int inputPos;
+    private int inputLimit;
+    private byte[] line = new byte[256];
+    private InputStream in;
+    private ConnectionGuard guard;
+
+    private final OutputBuffer head = new OutputBuffer(256);
+    private final OutputBuffer body = new OutputBuffer(4096);
+    private final Request request = new Request();
+    private final Response response = new Response(body);
+
+    /**
+     * Gets the exchange bound to the calling thread.
+     *
+     * @return the current thread's exchange
+     */
+
+    public static Exchange current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Prepares the exchange to serve a new connection.
+     *
+     * @param in    the connection input stream
+     * @param guard the connection's timeout guard
+     */
+
+    public void reset(InputStream in, ConnectionGuard guard) {
+        this.in = in;
+        this.guard = guard;
+        this.inputPos = 0;
+        this.inputLimit = 0;
+        head.reset();
+        body.reset();
+        request.recycle();
+        response.recycle();
+    }
+
+    /**
+     * Drops the references to the finished connection, so an idle worker
+     * thread does not keep its stream, guard or socket reachable.
+     */
+
+    public void release() {
+        this.in = null;
+        this.guard = null;
+        this.inputPos = 0;
+        this.inputLimit = 0;
+    }
+
+    /**
+     * Reads one CRLF or LF terminated line into the line buffer.
+     *
+     * @return the line length without terminator, or -1 at end of stream
+     * @throws IOException if an I/O error occurs or the line is too long
+     */
+
+    public int readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (inputPos == inputLimit && !fill()) {
+                return length == 0 ? -1 : length;
+            }
+            byte b = input[inputPos++];
+            if (b == '\n') {
+                if (length > 0 && line[length - 1] == '\r') {
+                    length--;
+                }
+                return length;
+            }
+            if (length == line.length) {
+                if (length >= MAX_LINE_LENGTH) {
+                    throw new IOException("Line exceeds " + MAX_LINE_LENGTH + " bytes");
+                }
+                line = Arrays.copyOf(line, Math.min(length << 1, MAX_LINE_LENGTH));
+            }
+            line[length++] = b;
+        }
+    }
+
+    /**
+     * Reads a single byte, draining buffered input first.
+     *
+     * @return the byte, or -1 at end of stream
+     * @throws IOException if an I/O error occurs
+     */
+
+    public int read() throws IOException {
+        if (inputPos == inputLimit && !fill()) {
+            return -1;
+        }
+        return input[inputPos++] & 0xFF;
+    }
+
+    /**
+     * Reads exactly len bytes, draining buffered input first. Reads larger
+     * than the input buffer go straight from the stream into the destination.
+     *
+     * @param dst the destination buffer
+     * @param off the destination offset
+     * @param len the number of bytes to read
+     * @throws IOException if an I/O error occurs or the stream ends early
+     */
+
+    public void readFully(byte[] dst, int off, int len) throws IOException {
+        int buffered = Math.min(len, inputLimit - inputPos);
+        System.arraycopy(input, inputPos, dst, off, buffered);
+        inputPos += buffered;
+        off += buffered;
+        len -= buffered;
+        while (len > 0) {
+            int n;
+            if (len >= input.length) {
+                n = in.read(dst, off, len);
+            } else if (fill()) {
+                n = Math.min(len, inputLimit);
+                System.arraycopy(input, 0, dst, off, n);
+                inputPos = n;
+            } else {
+                n = -1;
+            }
+            if (n < 0) {
+                throw new EOFException("Connection closed mid-read");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Gets the buffer holding the last line read.
+     *
+     * @return the line buffer
+     */
+
+    public byte[] line() {
+        return line;
+    }
+
+    /**
+     * Gets the buffer for the status line and headers.
+     *
+     * @return the head buffer
+     */
+
+    public OutputBuffer head() {
+        return head;
+    }
+
+    /**
+     * Gets the buffer for the response body.
+     *
+     * @return the body buffer
+     */
+
+    public OutputBuffer body() {
+        return body;
+    }
+
+    /**
+     * Gets the timeout guard of the connection being served.
+     *
+     * @return the connection guard
+     */
+
+    public ConnectionGuard guard() {
+        return guard;
+    }
+
+    /**
+     * Gets the recycled request.
+     *
+     * @return the request
+     */
+
+    public Request request() {
+        return request;
+    }
+
+    /**
+     * Gets the recycled response.
+     *
+     * @return the response
+     */
+
+    public Response response() {
+        return response;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(input, 0, input.length);
+        if (n <= 0) {
+            return false;
+        }
+        inputPos = 0;
+        inputLimit = n;
+        return true;
+    }
+}
@@ -0,0 +1,145 @@
+package edu.escuelaing.app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Raw request header block kept as bytes. Like {@link QueryString}, lookups
+ * scan the bytes in place and only the requested value becomes a String.
+ */
+
+public class Headers {
+    private static final int MAX_SIZE = 64 * 1024;
+
+    private byte[] bytes = new byte[1024];
+    private int length;
+
+    /**
+     * Appends one header line.
+     *
+     * @param line the buffer holding the line
+     * @param len  the line length without terminator
+     * @throws IOException if the header block grows past 64 KB
+     */
+
+    public void add(byte[] line, int len) throws IOException {
+        int required = length + len + 1;
+        if (required > MAX_SIZE) {
+            throw new IOException("Request headers exceed " + MAX_SIZE + " bytes");
+        }
+        if (required > bytes.length) {
+            byte[] grown = new byte[Math.min(MAX_SIZE, Math.max(required, bytes.length << 1))];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+        System.arraycopy(line, 0, bytes, length, len);
+        length += len;
+        bytes[length++] = '\n';
+    }
+
+    /**
+     * Removes every header.
+     */
+
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * Gets the first value of a header, matching the name case-insensitively.
+     *
+     * @param name the header name
+     * @return the trimmed value, or null if absent
+     */
+
+    public String get(String name) {
+        int pos = 0;
+        while (pos < length) {
+            int end = lineEnd(pos);
+            int valueStart = valueStart(pos, end, name);
+            if (valueStart >= 0) {
+                int valueEnd = trimEnd(valueStart, end);
+                return new String(bytes, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1);
+            }
+            pos = end + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a comma-separated header such as Connection or Upgrade
+     * lists a token, ignoring case. Repeated headers are all searched.
+     *
+     * @param name  the header name
+     * @param token the token to look for
+     * @return true if the token is present
+     */
+
+    public boolean containsToken(String name, String token) {
+        int pos = 0;
+        while (pos < length) {
+            int end = lineEnd(pos);
+            int i = valueStart(pos, end, name);
+            while (i >= 0 && i < end) {
+                int tokenEnd = i;
+                while (tokenEnd < end && bytes[tokenEnd] != ',') {
+                    tokenEnd++;
+                }
+                int start = skipWhitespace(i, tokenEnd);
+                if (equalsIgnoreCase(start, trimEnd(start, tokenEnd), token)) {
+                    return true;
+                }
+                i = tokenEnd + 1;
+            }
+            pos = end + 1;
+        }
+        return false;
+    }
+
+    private int lineEnd(int pos) {
+        while (bytes[pos] != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private int valueStart(int pos, int end, String name) {
+        int colon = pos + name.length();
+        if (colon >= end || bytes[colon] != ':' || !equalsIgnoreCase(pos, colon, name)) {
+            return -1;
+        }
+        return skipWhitespace(colon + 1, end);
+    }
+
+    private int skipWhitespace(int from, int to) {
+        while (from < to && (bytes[from] == ' ' || bytes[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private int trimEnd(int from, int to) {
+        while (to > from && (bytes[to - 1] == ' ' || bytes[to - 1] == '\t')) {
+            to--;
+        }
+        return to;
+    }
+
+    private boolean equalsIgnoreCase(int from, int to, String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            int a = toLowerAscii(bytes[i]);
+            int b = toLowerAscii(s.charAt(i - from));
+            if (a != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLowerAscii(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+}
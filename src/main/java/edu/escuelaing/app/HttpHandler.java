@@ -1,19 +1,18 @@
 package edu.escuelaing.app;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 /**
  * Handles HTTP requests and responses.
  */
 
 public class HttpHandler implements Runnable {
+    private static final int COALESCE_LIMIT = 8192;
 
     private final Socket client;
 
@@ -35,181 +34,277 @@ public class HttpHandler implements Runnable {
      */
 
     public void run() {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-                OutputStream out = client.getOutputStream()) {
-
-            String line = in.readLine();
-            if (line == null) {
+        Exchange exchange = Exchange.current();
+        boolean keepOpen = false;
+        ConnectionGuard guard = new ConnectionGuard(client);
+        try {
+            InputStream in = guard.input(client.getInputStream());
+            OutputStream out = guard.output(client.getOutputStream());
+
+            guard.expectRead(Timeouts.Rule.HEADER_READ);
+            exchange.reset(in, guard);
+            int length = exchange.readLine();
+            if (length <= 0) {
                 return;
             }
 
-            String[] parts = line.split(" ");
-            String method = parts[0];
-            String uri = parts[1];
-
-            String path = uri;
-            String query = null;
-            int q = uri.indexOf('?');
-            if (q >= 0) {
-                path = uri.substring(0, q);
-                query = uri.substring(q + 1);
+            byte[] line = exchange.line();
+            int methodEnd = indexOf(line, ' ', 0, length);
+            if (methodEnd <= 0) {
+                sendError(out, exchange, 400, "Bad Request");
+                return;
             }
+            int uriEnd = indexOf(line, ' ', methodEnd + 1, length);
+            if (uriEnd < 0) {
+                uriEnd = length;
+            }
+
+            String method = method(line, methodEnd);
+            int q = indexOf(line, '?', methodEnd + 1, uriEnd);
+            int pathEnd = q >= 0 ? q : uriEnd;
+            int queryStart = q >= 0 ? q + 1 : uriEnd;
+            String path = ascii(line, methodEnd + 1, pathEnd);
 
             if (path.equals("/")) {
                 path = "/index.html";
             }
 
+            Request request = exchange.request();
+            Response response = exchange.response();
+            request.recycle(method, path, line, queryStart, uriEnd - queryStart);
+            while ((length = exchange.readLine()) > 0) {
+                request.headers().add(exchange.line(), length);
+            }
+            guard.endRead();
+
             Router router = Router.getInstance();
             Route route = router.findRoute(path);
 
             if (route != null && method.equals("GET")) {
                 try {
-                    Request request = new Request(method, path, query);
-                    Response response = new Response();
-
                     String responseBody = route.getHandler().handle(request, response);
-                    sendResponse(out, response.getStatusCode(), responseBody, response.getContentType());
+                    if (response.isBodyWritten()) {
+                        if (responseBody != null) {
+                            throw new IllegalStateException("Handler for " + path
+                                    + " wrote the response body and also returned one");
+                        }
+                        commit(out, exchange, response.getStatusCode(), response.getContentType());
+                    } else {
+                        sendResponse(out, exchange, response.getStatusCode(), responseBody, response.getContentType());
+                    }
                     return;
-                } catch (IOException e) {
+                } catch (IOException | IllegalStateException e) {
                     e.printStackTrace();
-                    sendError(out, 500, "Internal Server Error");
+                    sendError(out, exchange, 500, "Internal Server Error");
                     return;
                 }
             }
 
+            // WebSocket
+            WebSocketEndpoint webSocket = router.findWebSocket(path);
+            if (webSocket != null && method.equals("GET")) {
+                if (!webSocket.upgrade(client, out, exchange)) {
+                    sendError(out, exchange, 400, "Bad Request");
+                }
+                return;
+            }
+
+            // Server-Sent Events
+            EventStream eventStream = router.findEventStream(path);
+            if (eventStream != null && method.equals("GET")) {
+                eventStream.subscribe(client, out);
+                keepOpen = true;
+                return;
+            }
+
             // Static Files
             StaticFileHandler staticHandler = StaticFileHandler.getInstance();
             try (InputStream staticFile = staticHandler.getStaticFile(path)) {
                 if (staticFile != null) {
-                    byte[] data = staticFile.readAllBytes();
-                    send(out, data, MimeTypes.get(path));
+                    exchange.body().readFrom(staticFile);
+                    commit(out, exchange, 200, MimeTypes.get(path));
                     return;
                 }
             }
 
             // GET /hello?name=Cristian
             if (path.equals("/hello") && method.equals("GET")) {
-                String name = getParam(query, "name");
+                String name = request.getValues("name");
                 String msg = "Hola " + name + " desde GET!";
-                send(out, msg, "text/plain");
+                send(out, exchange, msg, "text/plain");
                 return;
             }
 
             // POST /hellopost?name=Cristian
             if (path.equals("/hellopost") && method.equals("POST")) {
-                String name = getParam(query, "name");
+                String name = request.getValues("name");
                 String msg = "Hola " + name + " desde POST!";
-                send(out, msg, "text/plain");
+                send(out, exchange, msg, "text/plain");
                 return;
             }
 
             // GET /api/time
             if (path.equals("/api/time") && method.equals("GET")) {
                 String now = java.time.LocalDateTime.now().toString();
-                String json = "{\"time\": \"" + now + "\"}";
-                send(out, json, "application/json");
+                Json.write(Map.of("time", now), exchange.body());
+                commit(out, exchange, 200, "application/json");
                 return;
             }
 
             // Resources
             try (InputStream file = getClass().getResourceAsStream(path)) {
                 if (file != null) {
-                    byte[] data = file.readAllBytes();
-                    send(out, data, MimeTypes.get(path));
+                    exchange.body().readFrom(file);
+                    commit(out, exchange, 200, MimeTypes.get(path));
                 } else {
-                    send(out, "<h1>404 Not Found</h1>", "text/html");
+                    send(out, exchange, "<h1>404 Not Found</h1>", "text/html");
                 }
             }
 
         } catch (Exception e) {
-            e.printStackTrace();
+            // A connection closed by a timeout rule is already counted
+            if (guard.closedBy() == null) {
+                e.printStackTrace();
+            }
+        } finally {
+            exchange.release();
+            if (keepOpen) {
+                guard.endRead();
+            } else {
+                guard.close();
+            }
         }
     }
 
     /**
-     * Extracts a query parameter from the query string.
+     * Finds the first occurrence of a byte within a range.
      *
-     * @param query the query string
-     * @param key   the parameter key
-     * @return the parameter value, or an empty string if not found
+     * @param buf   the buffer to search
+     * @param b     the byte to find
+     * @param from  the start index, inclusive
+     * @param to    the end index, exclusive
+     * @return the index of the byte, or -1 if not found
      */
 
-    private String getParam(String query, String key) {
-        if (query == null || query.isEmpty()) {
-            return "";
-        }
-        for (String pair : query.split("&")) {
-            String[] kv = pair.split("=", 2);
-            if (kv.length == 2 && kv[0].equals(key)) {
-                return URLDecoder.decode(kv[1], StandardCharsets.UTF_8);
+    private static int indexOf(byte[] buf, char b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == b) {
+                return i;
             }
         }
-        return "";
+        return -1;
     }
 
     /**
-     * Sends HTTP response with a string body.
+     * Decodes an ASCII range of the request line.
      *
-     * @param out  the output stream
-     * @param body the response body
-     * @param type the content type
-     * @throws IOException if an I/O error occurs
+     * @param buf  the buffer holding the request line
+     * @param from the start index, inclusive
+     * @param to   the end index, exclusive
+     * @return the decoded string
      */
 
-    private void send(OutputStream out, String body, String type) throws IOException {
-        byte[] data = body.getBytes(StandardCharsets.UTF_8);
-        send(out, data, type);
+    private static String ascii(byte[] buf, int from, int to) {
+        return new String(buf, from, to - from, StandardCharsets.ISO_8859_1);
     }
 
     /**
-     * Sends HTTP response with a byte array body.
+     * Resolves the request method, reusing constants for the common ones.
      *
-     * @param out  the output stream
-     * @param body the response body
-     * @param type the content type
+     * @param buf    the buffer holding the request line
+     * @param length the method length
+     * @return the request method
+     */
+
+    private static String method(byte[] buf, int length) {
+        if (length == 3 && buf[0] == 'G' && buf[1] == 'E' && buf[2] == 'T') {
+            return "GET";
+        }
+        if (length == 4 && buf[0] == 'P' && buf[1] == 'O' && buf[2] == 'S' && buf[3] == 'T') {
+            return "POST";
+        }
+        return ascii(buf, 0, length);
+    }
+
+    /**
+     * Sends HTTP response with a string body.
+     *
+     * @param out      the output stream
+     * @param exchange the exchange holding the buffers
+     * @param body     the response body
+     * @param type     the content type
      * @throws IOException if an I/O error occurs
      */
 
-    private void send(OutputStream out, byte[] body, String type) throws IOException {
-        out.write(("HTTP/1.1 200 OK\r\n").getBytes());
-        out.write(("Content-Type: " + type + "\r\n").getBytes());
-        out.write(("Content-Length: " + body.length + "\r\n").getBytes());
-        out.write("\r\n".getBytes());
-        out.write(body);
+    private void send(OutputStream out, Exchange exchange, String body, String type) throws IOException {
+        sendResponse(out, exchange, 200, body, type);
     }
 
     /**
      * Sends HTTP response with custom status code.
      *
      * @param out         the output stream
+     * @param exchange    the exchange holding the buffers
      * @param statusCode  the HTTP status code
      * @param body        the response body
      * @param contentType the content type
      * @throws IOException if an I/O error occurs
      */
 
-    private void sendResponse(OutputStream out, int statusCode, String body, String contentType) throws IOException {
-        byte[] data = body.getBytes(StandardCharsets.UTF_8);
-        String statusText = getStatusText(statusCode);
-        out.write(("HTTP/1.1 " + statusCode + " " + statusText + "\r\n").getBytes());
-        out.write(("Content-Type: " + contentType + "\r\n").getBytes());
-        out.write(("Content-Length: " + data.length + "\r\n").getBytes());
-        out.write("\r\n".getBytes());
-        out.write(data);
+    private void sendResponse(OutputStream out, Exchange exchange, int statusCode, String body, String contentType)
+            throws IOException {
+        exchange.body().writeUtf8(body);
+        commit(out, exchange, statusCode, contentType);
     }
 
     /**
-     * Sends HTTP error response.
+     * Sends HTTP error response, discarding any partially written body.
      *
      * @param out        the output stream
+     * @param exchange   the exchange holding the buffers
      * @param statusCode the HTTP status code
      * @param message    the error message
      * @throws IOException if an I/O error occurs
      */
 
-    private void sendError(OutputStream out, int statusCode, String message) throws IOException {
+    private void sendError(OutputStream out, Exchange exchange, int statusCode, String message) throws IOException {
+        exchange.head().reset();
+        exchange.body().reset();
         String body = "<h1>" + statusCode + " " + message + "</h1>";
-        sendResponse(out, statusCode, body, "text/html");
+        sendResponse(out, exchange, statusCode, body, "text/html");
+    }
+
+    /**
+     * Writes the status line and headers followed by the buffered body. Small
+     * bodies are appended to the head so the whole response goes out in a
+     * single write.
+     *
+     * @param out         the output stream
+     * @param exchange    the exchange holding the buffers
+     * @param statusCode  the HTTP status code
+     * @param contentType the content type
+     * @throws IOException if an I/O error occurs
+     */
+
+    private void commit(OutputStream out, Exchange exchange, int statusCode, String contentType) throws IOException {
+        OutputBuffer head = exchange.head();
+        OutputBuffer body = exchange.body();
+        head.writeAscii("HTTP/1.1 ");
+        head.writeLong(statusCode);
+        head.write(' ');
+        head.writeAscii(getStatusText(statusCode));
+        head.writeAscii("\r\nContent-Type: ");
+        head.writeAscii(contentType);
+        head.writeAscii("\r\nContent-Length: ");
+        head.writeLong(body.size());
+        head.writeAscii("\r\n\r\n");
+        if (body.size() <= COALESCE_LIMIT) {
+            head.write(body.array(), 0, body.size());
+            head.writeTo(out);
+        } else {
+            head.writeTo(out);
+            body.writeTo(out);
+        }
     }
 
     /**
@@ -0,0 +1,415 @@
+package edu.escuelaing.app;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * JSON serialization straight into an {@link OutputBuffer}. Supports records,
+ * maps, iterables, arrays, strings, numbers, booleans, enums and optionals. Each record
+ * type gets a serializer built once from its components, with the field names
+ * pre-encoded and an accessor class generated per component, so writing a
+ * record does no reflection.
+ */
+
+public final class Json {
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ClassValue<RecordWriter> RECORD_WRITERS = new ClassValue<>() {
+        @Override
+        protected RecordWriter computeValue(Class<?> type) {
+            return new RecordWriter(type);
+        }
+    };
+
+    private Json() {
+    }
+
+    /**
+     * Builds the serializer for a record type ahead of its first use, so the
+     * setup cost is paid at startup rather than on a request.
+     *
+     * @param type the record type
+     * @throws IllegalArgumentException if the type is not an accessible record
+     */
+
+    public static void register(Class<? extends Record> type) {
+        RECORD_WRITERS.get(type);
+    }
+
+    /**
+     * Serializes a value to a JSON string.
+     *
+     * @param value the value to serialize
+     * @return the JSON text
+     */
+
+    public static String toJson(Object value) {
+        OutputBuffer out = new OutputBuffer(128);
+        write(value, out);
+        return new String(out.array(), 0, out.size(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Serializes a value as UTF-8 JSON.
+     *
+     * @param value the value to serialize
+     * @param out   the destination buffer
+     */
+
+    public static void write(Object value, OutputBuffer out) {
+        if (value == null) {
+            out.write(NULL);
+        } else if (value instanceof String s) {
+            writeString(s, out);
+        } else if (value instanceof Integer i) {
+            out.writeInt(i);
+        } else if (value instanceof Double d) {
+            writeDouble(d, out);
+        } else if (value instanceof Record) {
+            RECORD_WRITERS.get(value.getClass()).write(value, out);
+        } else if (value.getClass().isArray()) {
+            // Ahead of the interface checks, which are slow for array types
+            writeArray(value, out);
+        } else if (value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Boolean b) {
+            out.write(b ? TRUE : FALSE);
+        } else if (value instanceof Float f) {
+            writeFloat(f, out);
+        } else if (value instanceof Number n) {
+            out.writeAscii(n.toString());
+        } else if (value instanceof Enum<?> e) {
+            writeString(e.name(), out);
+        } else if (value instanceof Optional<?> optional) {
+            write(optional.orElse(null), out);
+        } else if (value instanceof Iterable<?> iterable) {
+            // Interface checks come last, since a failing one scans every supertype
+            writeIterable(iterable, out);
+        } else if (value instanceof Map<?, ?> map) {
+            writeMap(map, out);
+        } else if (value instanceof CharSequence s) {
+            writeString(s, out);
+        } else {
+            writeString(value.toString(), out);
+        }
+    }
+
+    /**
+     * Writes a JSON string literal, escaping quotes, backslashes and control
+     * characters.
+     *
+     * @param s   the text
+     * @param out the destination buffer
+     */
+
+    public static void writeString(CharSequence s, OutputBuffer out) {
+        int len = s.length();
+        // Worst case is a six byte escape per char, plus the quotes
+        int start = out.extend(len * 6 + 2);
+        byte[] buf = out.array();
+        int pos = start;
+        buf[pos++] = '"';
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buf[pos++] = (byte) c;
+                    continue;
+                }
+                buf[pos++] = '\\';
+                switch (c) {
+                    case '"' -> buf[pos++] = '"';
+                    case '\\' -> buf[pos++] = '\\';
+                    case '\n' -> buf[pos++] = 'n';
+                    case '\r' -> buf[pos++] = 'r';
+                    case '\t' -> buf[pos++] = 't';
+                    case '\b' -> buf[pos++] = 'b';
+                    case '\f' -> buf[pos++] = 'f';
+                    default -> {
+                        buf[pos++] = 'u';
+                        buf[pos++] = '0';
+                        buf[pos++] = '0';
+                        buf[pos++] = HEX[c >> 4];
+                        buf[pos++] = HEX[c & 0xF];
+                    }
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buf[pos++] = '"';
+        out.truncate(pos);
+    }
+
+    /**
+     * Writes a JSON number. NaN and infinities, which JSON cannot represent,
+     * are written as null.
+     *
+     * @param value the number
+     * @param out   the destination buffer
+     */
+
+    public static void writeDouble(double value, OutputBuffer out) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.write(NULL);
+        } else if (value == (long) value && Math.abs(value) < 1e7 && (value != 0 || 1 / value > 0)) {
+            // Same text as Double.toString for small integral values, without the String
+            out.writeLong((long) value);
+            out.writeAscii(".0");
+        } else {
+            out.writeAscii(Double.toString(value));
+        }
+    }
+
+    /**
+     * Writes a float with its own shortest representation, which widening to
+     * double would lose (0.1f would print as 0.10000000149011612).
+     *
+     * @param value the number
+     * @param out   the destination buffer
+     */
+
+    public static void writeFloat(float value, OutputBuffer out) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            out.write(NULL);
+        } else if (value == (long) value && Math.abs(value) < 1e7f && (value != 0 || 1 / value > 0)) {
+            out.writeLong((long) value);
+            out.writeAscii(".0");
+        } else {
+            out.writeAscii(Float.toString(value));
+        }
+    }
+
+    private static void writeMap(Map<?, ?> map, OutputBuffer out) {
+        out.write('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            writeString(String.valueOf(entry.getKey()), out);
+            out.write(':');
+            write(entry.getValue(), out);
+        }
+        out.write('}');
+    }
+
+    private static void writeIterable(Iterable<?> iterable, OutputBuffer out) {
+        out.write('[');
+        boolean first = true;
+        for (Object item : iterable) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            write(item, out);
+        }
+        out.write(']');
+    }
+
+    private static void writeArray(Object array, OutputBuffer out) {
+        out.write('[');
+        if (array instanceof int[] ints) {
+            for (int i = 0; i < ints.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.writeInt(ints[i]);
+            }
+        } else if (array instanceof long[] longs) {
+            for (int i = 0; i < longs.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.writeLong(longs[i]);
+            }
+        } else if (array instanceof double[] doubles) {
+            for (int i = 0; i < doubles.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeDouble(doubles[i], out);
+            }
+        } else if (array instanceof Object[] objects) {
+            for (int i = 0; i < objects.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                write(objects[i], out);
+            }
+        } else {
+            int length = Array.getLength(array);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                write(Array.get(array, i), out);
+            }
+        }
+        out.write(']');
+    }
+
+    /**
+     * Writes one record component, preceded by its pre-encoded name.
+     */
+
+    @FunctionalInterface
+    private interface FieldWriter {
+        void write(Object record, OutputBuffer out);
+    }
+
+    /**
+     * Serializer for one record type, built once from its components.
+     */
+
+    private static final class RecordWriter {
+        private final byte[][] names;
+        private final FieldWriter[] fields;
+
+        RecordWriter(Class<?> type) {
+            RecordComponent[] components = type.getRecordComponents();
+            if (components == null) {
+                throw new IllegalArgumentException(type + " is not a record");
+            }
+            names = new byte[components.length][];
+            fields = new FieldWriter[components.length];
+            for (int i = 0; i < components.length; i++) {
+                RecordComponent component = components[i];
+                // Pre-encode the separator, quoted name and colon: ,"name":
+                OutputBuffer name = new OutputBuffer(component.getName().length() + 4);
+                if (i > 0) {
+                    name.write(',');
+                }
+                writeString(component.getName(), name);
+                name.write(':');
+                names[i] = name.toByteArray();
+                try {
+                    fields[i] = fieldWriter(type, component);
+                } catch (Throwable e) {
+                    throw new IllegalArgumentException("Cannot access record component " + component, e);
+                }
+            }
+        }
+
+        void write(Object record, OutputBuffer out) {
+            out.write('{');
+            for (int i = 0; i < fields.length; i++) {
+                out.write(names[i]);
+                fields[i].write(record, out);
+            }
+            out.write('}');
+        }
+
+        /**
+         * Binds a component accessor. Accessible accessors are spun into
+         * functional interface implementations, which the JIT can inline;
+         * others go through a method handle.
+         */
+
+        @SuppressWarnings("unchecked")
+        private static FieldWriter fieldWriter(Class<?> owner, RecordComponent component) throws Throwable {
+            Class<?> type = component.getType();
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle accessor;
+            try {
+                accessor = lookup.unreflect(component.getAccessor());
+            } catch (IllegalAccessException e) {
+                MethodHandle handle = MethodHandles.privateLookupIn(owner, lookup).unreflect(component.getAccessor());
+                return methodHandleWriter(type, handle);
+            }
+            if (type == int.class || type == short.class || type == byte.class) {
+                ToIntFunction<Object> f = (ToIntFunction<Object>) spin(lookup, ToIntFunction.class, "applyAsInt",
+                        int.class, owner, accessor);
+                return (record, out) -> out.writeInt(f.applyAsInt(record));
+            } else if (type == long.class) {
+                ToLongFunction<Object> f = (ToLongFunction<Object>) spin(lookup, ToLongFunction.class, "applyAsLong",
+                        long.class, owner, accessor);
+                return (record, out) -> out.writeLong(f.applyAsLong(record));
+            } else if (type == double.class) {
+                ToDoubleFunction<Object> f = (ToDoubleFunction<Object>) spin(lookup, ToDoubleFunction.class,
+                        "applyAsDouble", double.class, owner, accessor);
+                return (record, out) -> writeDouble(f.applyAsDouble(record), out);
+            } else if (type == boolean.class) {
+                Predicate<Object> f = (Predicate<Object>) spin(lookup, Predicate.class, "test",
+                        boolean.class, owner, accessor);
+                return (record, out) -> out.write(f.test(record) ? TRUE : FALSE);
+            } else {
+                // Also float and char, boxed so they print as themselves
+                Function<Object, Object> f = (Function<Object, Object>) spin(lookup, Function.class, "apply",
+                        Object.class, owner, accessor);
+                return (record, out) -> Json.write(f.apply(record), out);
+            }
+        }
+
+        private static Object spin(MethodHandles.Lookup lookup, Class<?> iface, String method, Class<?> returnType,
+                Class<?> owner, MethodHandle accessor) throws Throwable {
+            Class<?> instantiatedReturn = returnType == Object.class ? accessor.type().returnType() : returnType;
+            return LambdaMetafactory.metafactory(lookup, method, MethodType.methodType(iface),
+                    MethodType.methodType(returnType, Object.class), accessor,
+                    MethodType.methodType(instantiatedReturn, owner)).getTarget().invoke();
+        }
+
+        private static FieldWriter methodHandleWriter(Class<?> type, MethodHandle handle) {
+            Class<?> returnType = type;
+            if (type == short.class || type == byte.class) {
+                returnType = int.class;
+            } else if (!type.isPrimitive()) {
+                returnType = Object.class;
+            }
+            MethodHandle accessor = handle.asType(MethodType.methodType(returnType, Object.class));
+            return (record, out) -> {
+                try {
+                    if (!type.isPrimitive()) {
+                        Json.write((Object) accessor.invokeExact(record), out);
+                    } else if (type == int.class || type == short.class || type == byte.class) {
+                        out.writeInt((int) accessor.invokeExact(record));
+                    } else if (type == long.class) {
+                        out.writeLong((long) accessor.invokeExact(record));
+                    } else if (type == double.class) {
+                        writeDouble((double) accessor.invokeExact(record), out);
+                    } else if (type == float.class) {
+                        writeFloat((float) accessor.invokeExact(record), out);
+                    } else if (type == boolean.class) {
+                        out.write((boolean) accessor.invokeExact(record) ? TRUE : FALSE);
+                    } else {
+                        writeString(String.valueOf((char) accessor.invokeExact(record)), out);
+                    }
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Record accessor failed", e);
+                }
+            };
+        }
+    }
+}
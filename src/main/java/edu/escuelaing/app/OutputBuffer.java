@@ -0,0 +1,286 @@
+package edu.escuelaing.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer used to assemble HTTP messages before writing them to
+ * the socket. Instances are recycled between requests, so text is encoded
+ * straight into the backing array instead of through temporary byte arrays.
+ */
+
+public class OutputBuffer extends OutputStream {
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final int initialCapacity;
+    private byte[] buf;
+    private int count;
+
+    /**
+     * Constructor for OutputBuffer.
+     *
+     * @param initialCapacity the initial capacity in bytes
+     */
+
+    public OutputBuffer(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.buf = new byte[initialCapacity];
+    }
+
+    /**
+     * Discards the buffered bytes. Buffers that grew past 64 KB are released
+     * so a single large response is not retained by the pool forever.
+     */
+
+    public void reset() {
+        count = 0;
+        if (buf.length > MAX_RETAINED_CAPACITY) {
+            buf = new byte[initialCapacity];
+        }
+    }
+
+    /**
+     * Gets the number of buffered bytes.
+     *
+     * @return the buffered size
+     */
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the backing array. Only the first {@link #size()} bytes are valid.
+     *
+     * @return the backing array
+     */
+
+    public byte[] array() {
+        return buf;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * Reserves space at the end of the buffer for the caller to fill through
+     * {@link #array()}, for example when reading or inflating in place.
+     *
+     * @param len the number of bytes to reserve
+     * @return the offset of the reserved range
+     */
+
+    public int extend(int len) {
+        ensureCapacity(len);
+        int offset = count;
+        count += len;
+        return offset;
+    }
+
+    /**
+     * Shrinks the buffer to the given size, dropping any bytes beyond it.
+     *
+     * @param size the new size
+     */
+
+    public void truncate(int size) {
+        if (size < count) {
+            count = size;
+        }
+    }
+
+    /**
+     * Writes a string whose characters are all in the ISO-8859-1 range, such
+     * as a header name or value.
+     *
+     * @param s the string to write
+     */
+
+    public void writeAscii(String s) {
+        int len = s.length();
+        ensureCapacity(len);
+        for (int i = 0; i < len; i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Writes the decimal representation of a long without creating a String.
+     *
+     * @param value the value to write
+     */
+
+    public void writeLong(long value) {
+        if (value == (int) value) {
+            writeInt((int) value);
+            return;
+        }
+        if (value == Long.MIN_VALUE) {
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buf[count++] = '-';
+            value = -value;
+        }
+        int end = count + digits(value);
+        for (int i = end - 1; i >= count; i--) {
+            buf[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        count = end;
+    }
+
+    /**
+     * Writes the decimal representation of an int without creating a String.
+     *
+     * @param value the value to write
+     */
+
+    public void writeInt(int value) {
+        if (value == Integer.MIN_VALUE) {
+            writeAscii("-2147483648");
+            return;
+        }
+        ensureCapacity(11);
+        if (value < 0) {
+            buf[count++] = '-';
+            value = -value;
+        }
+        int end = count + digits(value);
+        for (int i = end - 1; i >= count; i--) {
+            buf[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        count = end;
+    }
+
+    /**
+     * Writes a character sequence encoded as UTF-8.
+     *
+     * @param s the text to write
+     */
+
+    public void writeUtf8(CharSequence s) {
+        writeUtf8(s, 0, s.length());
+    }
+
+    /**
+     * Writes a range of a character sequence encoded as UTF-8.
+     *
+     * @param s    the text to write
+     * @param from the start index, inclusive
+     * @param to   the end index, exclusive
+     */
+
+    public void writeUtf8(CharSequence s, int from, int to) {
+        ensureCapacity(to - from);
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (count == buf.length) {
+                    ensureCapacity(to - i);
+                }
+                buf[count++] = (byte) c;
+            } else {
+                writeUtf8Char(s, i, to, c);
+                if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the remainder of a stream straight into the buffer.
+     *
+     * @param in the stream to read
+     * @throws IOException if an I/O error occurs
+     */
+
+    public void readFrom(InputStream in) throws IOException {
+        while (true) {
+            ensureCapacity(1);
+            int n = in.read(buf, count, buf.length - count);
+            if (n < 0) {
+                return;
+            }
+            count += n;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to a stream.
+     *
+     * @param out the destination stream
+     * @throws IOException if an I/O error occurs
+     */
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    /**
+     * Copies the buffered bytes into a new array.
+     *
+     * @return a copy of the buffered bytes
+     */
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    private void writeUtf8Char(CharSequence s, int i, int to, char c) {
+        ensureCapacity(4);
+        if (c < 0x800) {
+            buf[count++] = (byte) (0xC0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            buf[count++] = (byte) (0xF0 | (cp >> 18));
+            buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buf[count++] = (byte) (0x80 | (cp & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            buf[count++] = '?';
+        } else {
+            buf[count++] = (byte) (0xE0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = count + extra;
+        if (required > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(required, buf.length << 1));
+        }
+    }
+}
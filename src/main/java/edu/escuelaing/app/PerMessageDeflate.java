@@ -0,0 +1,171 @@
+package edu.escuelaing.app;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The permessage-deflate WebSocket extension (RFC 7692) for one connection.
+ * The deflater is only touched under the connection's write lock and the
+ * inflater only by its reading thread.
+ */
+
+public class PerMessageDeflate {
+    private static final String NAME = "permessage-deflate";
+    private static final byte[] TAIL = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+    private static final int CHUNK = 4096;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    private final OutputBuffer inflated = new OutputBuffer(1024);
+    private final boolean serverNoContextTakeover;
+
+    private PerMessageDeflate(boolean serverNoContextTakeover) {
+        this.serverNoContextTakeover = serverNoContextTakeover;
+    }
+
+    /**
+     * Accepts the first permessage-deflate offer this server can honour.
+     *
+     * @param offers the Sec-WebSocket-Extensions request header, or null
+     * @return the negotiated extension, or null if none was acceptable
+     */
+
+    public static PerMessageDeflate negotiate(String offers) {
+        if (offers == null) {
+            return null;
+        }
+        for (String offer : offers.split(",")) {
+            String[] params = offer.split(";");
+            if (!params[0].trim().equalsIgnoreCase(NAME)) {
+                continue;
+            }
+            boolean acceptable = true;
+            boolean serverNoContextTakeover = false;
+            for (int i = 1; i < params.length && acceptable; i++) {
+                String[] kv = params[i].trim().split("=", 2);
+                String value = kv.length == 2 ? kv[1].trim().replace("\"", "") : null;
+                switch (kv[0].trim().toLowerCase()) {
+                    case "server_no_context_takeover" -> serverNoContextTakeover = true;
+                    // The inflater accepts any window size and does not care about client resets
+                    case "client_no_context_takeover", "client_max_window_bits" -> {
+                    }
+                    // java.util.zip always compresses with a 32 KB window
+                    case "server_max_window_bits" -> acceptable = "15".equals(value);
+                    default -> acceptable = false;
+                }
+            }
+            if (acceptable) {
+                return new PerMessageDeflate(serverNoContextTakeover);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the Sec-WebSocket-Extensions response header value.
+     *
+     * @return the accepted extension parameters
+     */
+
+    public String responseHeader() {
+        return serverNoContextTakeover ? NAME + "; server_no_context_takeover" : NAME;
+    }
+
+    /**
+     * Compresses one message payload, without the trailing empty block.
+     *
+     * @param data the payload buffer
+     * @param off  the payload offset
+     * @param len  the payload length
+     * @param out  the buffer receiving the compressed bytes
+     */
+
+    public void compress(byte[] data, int off, int len, OutputBuffer out) {
+        deflater.setInput(data, off, len);
+        while (true) {
+            int start = out.extend(CHUNK);
+            int n = deflater.deflate(out.array(), start, CHUNK, Deflater.SYNC_FLUSH);
+            out.truncate(start + n);
+            if (n < CHUNK) {
+                break;
+            }
+        }
+        int size = out.size();
+        if (size >= TAIL.length && endsWithTail(out.array(), size)) {
+            out.truncate(size - TAIL.length);
+        }
+        if (serverNoContextTakeover) {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * Decompresses one message payload.
+     *
+     * @param data    the compressed buffer
+     * @param off     the compressed offset
+     * @param len     the compressed length
+     * @param maxSize the largest decompressed size allowed
+     * @return a buffer holding the decompressed message, valid until the next call
+     * @throws DataFormatException if the payload is not valid deflate data
+     * @throws MessageTooBigException if the message inflates past maxSize
+     */
+
+    public OutputBuffer decompress(byte[] data, int off, int len, int maxSize)
+            throws DataFormatException, MessageTooBigException {
+        if (inflater.finished()) {
+            inflater.reset();
+        }
+        inflated.reset();
+        inflater.setInput(data, off, len);
+        inflateAll(maxSize);
+        inflater.setInput(TAIL);
+        inflateAll(maxSize);
+        return inflated;
+    }
+
+    /**
+     * Releases the native zlib state.
+     */
+
+    public void end() {
+        deflater.end();
+        inflater.end();
+    }
+
+    private void inflateAll(int maxSize) throws DataFormatException, MessageTooBigException {
+        while (true) {
+            int start = inflated.extend(CHUNK);
+            int n = inflater.inflate(inflated.array(), start, CHUNK);
+            inflated.truncate(start + n);
+            if (inflated.size() > maxSize) {
+                throw new MessageTooBigException();
+            }
+            if (n == 0) {
+                return;
+            }
+        }
+    }
+
+    private static boolean endsWithTail(byte[] buf, int size) {
+        for (int i = 0; i < TAIL.length; i++) {
+            if (buf[size - TAIL.length + i] != TAIL[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Thrown when a compressed message inflates past the size limit.
+     */
+
+    public static class MessageTooBigException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public MessageTooBigException() {
+            super("Decompressed message too big");
+        }
+    }
+}
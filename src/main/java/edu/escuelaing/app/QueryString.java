@@ -0,0 +1,304 @@
+package edu.escuelaing.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Raw URL query kept as bytes and parsed on demand. Looking a key up scans the
+ * bytes in place, and only the values that are actually requested get
+ * percent-decoded.
+ */
+
+public class QueryString {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private byte[] bytes = new byte[128];
+    private int length;
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Replaces the query with a range of raw request bytes.
+     *
+     * @param src the source buffer
+     * @param off the query offset
+     * @param len the query length
+     */
+
+    public void set(byte[] src, int off, int len) {
+        if (len > bytes.length) {
+            bytes = new byte[Math.max(len, bytes.length << 1)];
+        }
+        System.arraycopy(src, off, bytes, 0, len);
+        length = len;
+    }
+
+    /**
+     * Replaces the query with a query string.
+     *
+     * @param query the query string, or null for none
+     */
+
+    public void set(String query) {
+        if (query == null) {
+            clear();
+            return;
+        }
+        byte[] raw = query.getBytes(StandardCharsets.UTF_8);
+        set(raw, 0, raw.length);
+    }
+
+    /**
+     * Removes the query.
+     */
+
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * Gets the decoded value of a parameter. When the parameter is repeated
+     * the last occurrence wins.
+     *
+     * @param name the parameter name
+     * @return the decoded value, or null if absent
+     */
+
+    public String get(String name) {
+        int start = lastValueStart(name);
+        return start < 0 ? null : decode(start, valueEnd(start));
+    }
+
+    /**
+     * Gets every decoded value of a parameter, in query order.
+     *
+     * @param name the parameter name
+     * @return the decoded values, empty if absent
+     */
+
+    public List<String> getAll(String name) {
+        List<String> values = new ArrayList<>(2);
+        int pos = 0;
+        int start;
+        while ((start = nextValueStart(name, pos)) >= 0) {
+            int end = valueEnd(start);
+            values.add(decode(start, end));
+            pos = end + 1;
+        }
+        return values;
+    }
+
+    /**
+     * Parses a parameter as an int straight from the query bytes.
+     *
+     * @param name the parameter name
+     * @return the parsed value
+     * @throws NumberFormatException if absent or not a valid int
+     */
+
+    public int getInt(String name) {
+        int start = lastValueStart(name);
+        if (start < 0) {
+            throw new NumberFormatException("Missing parameter: " + name);
+        }
+        int end = valueEnd(start);
+        if (indexOf('%', start, end) >= 0) {
+            return Integer.parseInt(decode(start, end));
+        }
+        int i = start;
+        boolean negative = i < end && bytes[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end) {
+            throw invalidNumber(start, end);
+        }
+        // Accumulate negatively so Integer.MIN_VALUE does not overflow
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || result < limit / 10) {
+                throw invalidNumber(start, end);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw invalidNumber(start, end);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Parses a parameter as a double. Plain decimals with up to 15 digits are
+     * converted exactly from the query bytes; anything else, such as
+     * exponents or encoded characters, goes through
+     * {@link Double#parseDouble}.
+     *
+     * @param name the parameter name
+     * @return the parsed value
+     * @throws NumberFormatException if absent or not a valid double
+     */
+
+    public double getDouble(String name) {
+        int start = lastValueStart(name);
+        if (start < 0) {
+            throw new NumberFormatException("Missing parameter: " + name);
+        }
+        int end = valueEnd(start);
+        int i = start;
+        boolean negative = i < end && bytes[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0 && digits <= MAX_EXACT_DIGITS) {
+            // Both operands are exact doubles, so one division rounds correctly
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(decode(start, end));
+    }
+
+    private int lastValueStart(String name) {
+        int last = -1;
+        int pos = 0;
+        int start;
+        while ((start = nextValueStart(name, pos)) >= 0) {
+            last = start;
+            pos = valueEnd(start) + 1;
+        }
+        return last;
+    }
+
+    private int nextValueStart(String name, int pos) {
+        while (pos < length) {
+            int end = indexOf('&', pos, length);
+            if (end < 0) {
+                end = length;
+            }
+            int eq = indexOf('=', pos, end);
+            if (eq >= 0 && keyEquals(pos, eq, name)) {
+                return eq + 1;
+            }
+            pos = end + 1;
+        }
+        return -1;
+    }
+
+    private int valueEnd(int start) {
+        int end = indexOf('&', start, length);
+        return end < 0 ? length : end;
+    }
+
+    private boolean keyEquals(int from, int to, String name) {
+        int nameLength = name.length();
+        int n = 0;
+        int i = from;
+        while (i < to) {
+            int b = bytes[i] & 0xFF;
+            if (b == '%' && isEscape(i, to)) {
+                b = (hex(bytes[i + 1]) << 4) | hex(bytes[i + 2]);
+                i += 3;
+            } else {
+                if (b == '+') {
+                    b = ' ';
+                }
+                i++;
+            }
+            if (n == nameLength) {
+                return false;
+            }
+            char c = name.charAt(n++);
+            if (c >= 0x80) {
+                return name.equals(decode(from, to));
+            }
+            if (b != c) {
+                return false;
+            }
+        }
+        return n == nameLength;
+    }
+
+    private String decode(int from, int to) {
+        int plain = from;
+        while (plain < to && bytes[plain] != '%' && bytes[plain] != '+') {
+            plain++;
+        }
+        if (plain == to) {
+            return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        }
+        if (scratch.length < to - from) {
+            scratch = new byte[Math.max(to - from, scratch.length << 1)];
+        }
+        int n = plain - from;
+        System.arraycopy(bytes, from, scratch, 0, n);
+        for (int i = plain; i < to;) {
+            byte b = bytes[i];
+            if (b == '%' && isEscape(i, to)) {
+                scratch[n++] = (byte) ((hex(bytes[i + 1]) << 4) | hex(bytes[i + 2]));
+                i += 3;
+            } else {
+                scratch[n++] = b == '+' ? (byte) ' ' : b;
+                i++;
+            }
+        }
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private boolean isEscape(int i, int to) {
+        return i + 2 < to && hex(bytes[i + 1]) >= 0 && hex(bytes[i + 2]) >= 0;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private NumberFormatException invalidNumber(int from, int to) {
+        return new NumberFormatException("For input string: \"" + decode(from, to) + "\"");
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -1,20 +1,24 @@
 package edu.escuelaing.app;
 
-import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 /**
- * Represents an HTTP request with query parameter support.
+ * Represents an HTTP request with query parameter support. The query is kept
+ * as raw bytes and only the parameters a handler asks for are decoded.
  */
 
 public class Request {
-    private final String method;
-    private final String path;
-    @SuppressWarnings("unused")
-    private final String queryString;
-    private final Map<String, String> queryParams;
+    private String method;
+    private String path;
+    private final QueryString query = new QueryString();
+    private final Headers headers = new Headers();
+
+    /**
+     * Constructor for a recycled Request, filled in later by {@link #recycle}.
+     */
+
+    Request() {
+    }
 
     /**
      * Constructor for Request.
@@ -27,19 +31,117 @@ public class Request {
     public Request(String method, String path, String queryString) {
         this.method = method;
         this.path = path;
-        this.queryString = queryString;
-        this.queryParams = parseQueryParameters(queryString);
+        this.query.set(queryString);
     }
 
     /**
-     * Gets the value of a query parameter.
+     * Clears the request so it can be reused for another exchange.
+     */
+
+    void recycle() {
+        this.method = null;
+        this.path = null;
+        this.query.clear();
+        this.headers.clear();
+    }
+
+    /**
+     * Reinitializes the request for a new exchange, copying the raw query
+     * bytes without decoding them.
+     *
+     * @param method The HTTP method.
+     * @param path   The request path.
+     * @param buf    The buffer holding the query.
+     * @param off    The query offset.
+     * @param len    The query length.
+     */
+
+    void recycle(String method, String path, byte[] buf, int off, int len) {
+        this.method = method;
+        this.path = path;
+        this.query.set(buf, off, len);
+        this.headers.clear();
+    }
+
+    /**
+     * Gets the raw header block, filled in while the request is read.
+     *
+     * @return the request headers
+     */
+
+    Headers headers() {
+        return headers;
+    }
+
+    /**
+     * Gets the value of a query parameter. When the parameter is repeated the
+     * last value is returned.
      *
      * @param name the parameter name
-     * @return the parameter value
+     * @return the parameter value, or an empty string if absent
      */
 
     public String getValues(String name) {
-        return queryParams.getOrDefault(name, "");
+        String value = query.get(name);
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Gets every value of a repeated query parameter.
+     *
+     * @param name the parameter name
+     * @return the parameter values in query order, empty if absent
+     */
+
+    public List<String> getAllValues(String name) {
+        return query.getAll(name);
+    }
+
+    /**
+     * Gets a query parameter as an int without decoding it to a String.
+     *
+     * @param name the parameter name
+     * @return the parameter value
+     * @throws NumberFormatException if absent or not a valid int
+     */
+
+    public int getInt(String name) {
+        return query.getInt(name);
+    }
+
+    /**
+     * Gets a query parameter as a double without decoding it to a String.
+     *
+     * @param name the parameter name
+     * @return the parameter value
+     * @throws NumberFormatException if absent or not a valid double
+     */
+
+    public double getDouble(String name) {
+        return query.getDouble(name);
+    }
+
+    /**
+     * Gets the value of a request header, matching the name case-insensitively.
+     *
+     * @param name the header name
+     * @return the header value, or null if absent
+     */
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * Checks whether a comma-separated request header lists a token.
+     *
+     * @param name  the header name
+     * @param token the token to look for, compared case-insensitively
+     * @return true if the token is present
+     */
+
+    public boolean hasHeaderToken(String name, String token) {
+        return headers.containsToken(name, token);
     }
 
     /**
@@ -61,28 +163,4 @@ public class Request {
     public String getPath() {
         return path;
     }
-
-    /**
-     * Parses the query parameters from the query string.
-     *
-     * @param queryString the query string
-     * @return a map of query parameter names to values
-     */
-
-    private Map<String, String> parseQueryParameters(String queryString) {
-        Map<String, String> params = new HashMap<>();
-        if (queryString == null || queryString.isEmpty()) {
-            return params;
-        }
-
-        for (String pair : queryString.split("&")) {
-            String[] keyValue = pair.split("=", 2);
-            if (keyValue.length == 2) {
-                String key = URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8);
-                String value = URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8);
-                params.put(key, value);
-            }
-        }
-        return params;
-    }
 }
@@ -5,8 +5,76 @@ package edu.escuelaing.app;
  */
 
 public class Response {
+    private final OutputBuffer body;
     private int statusCode = 200;
     private String contentType = "text/plain";
+    private boolean bodyWritten;
+
+    /**
+     * Constructor for Response.
+     */
+
+    public Response() {
+        this(new OutputBuffer(256));
+    }
+
+    /**
+     * Constructor for a Response that writes into a recycled body buffer.
+     *
+     * @param body the body buffer
+     */
+
+    Response(OutputBuffer body) {
+        this.body = body;
+    }
+
+    /**
+     * Restores the default status and content type so the response can be
+     * reused for another exchange.
+     */
+
+    void recycle() {
+        this.statusCode = 200;
+        this.contentType = "text/plain";
+        this.bodyWritten = false;
+    }
+
+    /**
+     * Serializes a value as the JSON response body, writing it straight into
+     * the response buffer. Records, maps, lists, arrays, strings, numbers and
+     * booleans are supported. The handler must then return null; returning
+     * a body as well is rejected with a 500 response.
+     *
+     * @param value the value to serialize
+     */
+
+    public void json(Object value) {
+        body.reset();
+        Json.write(value, body);
+        contentType = "application/json";
+        bodyWritten = true;
+    }
+
+    /**
+     * Checks whether the body was written directly, in which case the
+     * handler must return null.
+     *
+     * @return true if the body buffer holds the response
+     */
+
+    public boolean isBodyWritten() {
+        return bodyWritten;
+    }
+
+    /**
+     * Gets the directly written response body.
+     *
+     * @return the body buffer
+     */
+
+    public OutputBuffer getBody() {
+        return body;
+    }
 
     /**
      * Sets the HTTP status code.
@@ -1,7 +1,9 @@
 package edu.escuelaing.app;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Singleton router for managing routes.
@@ -10,6 +12,8 @@ import java.util.List;
 public class Router {
     private static Router instance;
     private final List<Route> routes;
+    private final Map<String, EventStream> eventStreams;
+    private final Map<String, WebSocketEndpoint> webSockets;
 
     /**
      * Private constructor for the Router singleton.
@@ -17,6 +21,8 @@ public class Router {
 
     private Router() {
         this.routes = new ArrayList<>();
+        this.eventStreams = new HashMap<>();
+        this.webSockets = new HashMap<>();
     }
 
     /**
@@ -58,4 +64,48 @@ public class Router {
         }
         return null;
     }
+
+    /**
+     * Registers a Server-Sent Events stream.
+     *
+     * @param path   the stream path
+     * @param stream the event stream
+     */
+
+    public void addEventStream(String path, EventStream stream) {
+        eventStreams.put(path, stream);
+    }
+
+    /**
+     * Finds an event stream by its request path.
+     *
+     * @param requestPath the request path
+     * @return the matching EventStream, or null if not found
+     */
+
+    public EventStream findEventStream(String requestPath) {
+        return eventStreams.get(requestPath);
+    }
+
+    /**
+     * Registers a WebSocket endpoint.
+     *
+     * @param path     the endpoint path
+     * @param endpoint the WebSocket endpoint
+     */
+
+    public void addWebSocket(String path, WebSocketEndpoint endpoint) {
+        webSockets.put(path, endpoint);
+    }
+
+    /**
+     * Finds a WebSocket endpoint by its request path.
+     *
+     * @param requestPath the request path
+     * @return the matching WebSocketEndpoint, or null if not found
+     */
+
+    public WebSocketEndpoint findWebSocket(String requestPath) {
+        return webSockets.get(requestPath);
+    }
 }
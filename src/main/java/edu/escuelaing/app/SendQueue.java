@@ -0,0 +1,158 @@
+package edu.escuelaing.app;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded queue of pending writes to one peer, drained by a small pool of
+ * writer threads shared by every queue, so an idle peer holds no thread. At
+ * most one writer drains a given queue at a time. Each write runs under a
+ * deadline on the shared {@link TimingWheel}. A peer whose queue fills up, or
+ * whose write is still blocked when the deadline expires, is evicted; closing
+ * its socket releases the writer thread. Server-Sent Events subscribers and
+ * queued WebSocket messages both go through here.
+ *
+ * @param <T> the type of the queued items
+ */
+
+abstract class SendQueue<T> extends TimingWheel.Timeout implements Runnable {
+    private static final ExecutorService WRITERS = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "send-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final ArrayBlockingQueue<T> queue;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final long writeTimeoutMillis;
+    private final TimingWheel wheel = TimingWheel.getInstance();
+
+    /**
+     * Constructor for SendQueue.
+     *
+     * @param capacity           the number of items the peer may fall behind
+     *                           before it is evicted
+     * @param writeTimeoutMillis how long a write may stay blocked before the
+     *                           peer is evicted, or 0 for no limit
+     */
+
+    SendQueue(int capacity, long writeTimeoutMillis) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    /**
+     * Queues an item for a writer thread, evicting the peer if the queue is
+     * full. Never blocks.
+     *
+     * @param item the item to write
+     */
+
+    final void offer(T item) {
+        if (!queue.offer(item)) {
+            evict();
+            return;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            WRITERS.execute(this);
+        }
+    }
+
+    /**
+     * Takes the next pending item, so a write can batch several under one
+     * deadline.
+     *
+     * @return the item, or null if none is pending
+     */
+
+    final T poll() {
+        return queue.poll();
+    }
+
+    /**
+     * Drops the pending items and the deadline of a write in progress, once
+     * the peer is closed.
+     */
+
+    final void clear() {
+        queue.clear();
+        wheel.cancel(this);
+    }
+
+    /**
+     * Writes one item to the peer. Runs on a writer thread under the write
+     * deadline.
+     *
+     * @param item the item taken from the queue
+     * @throws IOException if the write fails
+     */
+
+    abstract void write(T item) throws IOException;
+
+    /**
+     * Flushes the peer once the queue is drained.
+     *
+     * @throws IOException if the flush fails
+     */
+
+    void flush() throws IOException {
+        // Nothing buffered by default
+    }
+
+    /**
+     * Drops a peer whose queue is full or whose write is still blocked at the
+     * deadline. Must close the peer without blocking on it.
+     */
+
+    abstract void evict();
+
+    /**
+     * Drops a peer whose write failed. The queue is already cleared.
+     */
+
+    abstract void failed();
+
+    @Override
+    public final void run() {
+        try {
+            do {
+                T item;
+                while ((item = queue.poll()) != null) {
+                    if (writeTimeoutMillis > 0) {
+                        wheel.schedule(this, TimingWheel.now() + writeTimeoutMillis);
+                    }
+                    try {
+                        write(item);
+                    } finally {
+                        wheel.cancel(this);
+                    }
+                }
+                flush();
+                scheduled.set(false);
+                // Re-check so an item offered just before the flag cleared is not stranded
+            } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+        } catch (IOException e) {
+            stop();
+        } catch (RuntimeException e) {
+            // Still drop the peer, or the set flag would strand it
+            stop();
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected final void expired(long now) {
+        // Only reached while a write is still blocked
+        evict();
+    }
+
+    private void stop() {
+        queue.clear();
+        scheduled.set(false);
+        failed();
+    }
+}
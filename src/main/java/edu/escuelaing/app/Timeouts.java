@@ -0,0 +1,165 @@
+package edu.escuelaing.app;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Connection deadlines and the minimum read rate, shared by every listener,
+ * with a count of the connections each rule has closed. A value of 0 turns a
+ * rule off. Values are read each time a phase starts, so changes apply to
+ * phases that start afterwards.
+ */
+
+public class Timeouts {
+    private static final Timeouts INSTANCE = new Timeouts();
+
+    private volatile long headerReadMillis = 10_000;
+    private volatile long bodyReadMillis = 30_000;
+    private volatile long idleMillis = 60_000;
+    private volatile long writeMillis = 30_000;
+    private volatile long minReadRate = 240;
+    private volatile long minReadRateGraceMillis = 5_000;
+    private final AtomicLongArray closed = new AtomicLongArray(Rule.values().length);
+
+    /**
+     * The rules that may close a connection.
+     */
+
+    public enum Rule {
+        /** The request line and headers took too long to arrive. */
+        HEADER_READ,
+        /** A WebSocket frame took too long to arrive once it had started. */
+        BODY_READ,
+        /** No new request or message started in time. */
+        IDLE,
+        /** A single write stayed blocked on a client that is not reading. */
+        WRITE,
+        /** Data arrived slower than the minimum read rate. */
+        MIN_READ_RATE
+    }
+
+    private Timeouts() {
+    }
+
+    /**
+     * Gets the shared configuration.
+     *
+     * @return the shared Timeouts
+     */
+
+    public static Timeouts getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the time allowed for a rule's phase.
+     *
+     * @param rule a deadline rule
+     * @return the deadline in milliseconds, or 0 for no deadline
+     */
+
+    public long getMillis(Rule rule) {
+        return switch (rule) {
+            case HEADER_READ -> headerReadMillis;
+            case BODY_READ -> bodyReadMillis;
+            case IDLE -> idleMillis;
+            case WRITE -> writeMillis;
+            case MIN_READ_RATE -> 0;
+        };
+    }
+
+    /**
+     * Sets how long a client has, from connecting, to send the request line
+     * and headers.
+     *
+     * @param millis the deadline in milliseconds, or 0 for none
+     */
+
+    public void setHeaderReadMillis(long millis) {
+        this.headerReadMillis = millis;
+    }
+
+    /**
+     * Sets how long a WebSocket frame may take to arrive once it has started.
+     *
+     * @param millis the deadline in milliseconds, or 0 for none
+     */
+
+    public void setBodyReadMillis(long millis) {
+        this.bodyReadMillis = millis;
+    }
+
+    /**
+     * Sets how long a WebSocket connection may wait for its next frame.
+     *
+     * @param millis the deadline in milliseconds, or 0 for none
+     */
+
+    public void setIdleMillis(long millis) {
+        this.idleMillis = millis;
+    }
+
+    /**
+     * Sets how long a single write may stay blocked.
+     *
+     * @param millis the deadline in milliseconds, or 0 for none
+     */
+
+    public void setWriteMillis(long millis) {
+        this.writeMillis = millis;
+    }
+
+    /**
+     * Gets the minimum read rate.
+     *
+     * @return the rate in bytes per second, or 0 if not enforced
+     */
+
+    public long getMinReadRate() {
+        return minReadRate;
+    }
+
+    /**
+     * Gets how long data must have been flowing before the minimum read rate
+     * applies.
+     *
+     * @return the grace period in milliseconds
+     */
+
+    public long getMinReadRateGraceMillis() {
+        return minReadRateGraceMillis;
+    }
+
+    /**
+     * Sets the slowest rate at which headers or a frame may arrive once the
+     * client has started sending them.
+     *
+     * @param bytesPerSecond the minimum rate, or 0 to allow any rate
+     * @param graceMillis    how long the rate is not checked after data starts
+     */
+
+    public void setMinReadRate(long bytesPerSecond, long graceMillis) {
+        this.minReadRate = bytesPerSecond;
+        this.minReadRateGraceMillis = graceMillis;
+    }
+
+    /**
+     * Gets how many connections a rule has closed.
+     *
+     * @param rule the rule
+     * @return the number of connections closed
+     */
+
+    public long getClosedCount(Rule rule) {
+        return closed.get(rule.ordinal());
+    }
+
+    /**
+     * Records a connection closed by a rule.
+     *
+     * @param rule the rule that closed it
+     */
+
+    void recordClosed(Rule rule) {
+        closed.incrementAndGet(rule.ordinal());
+    }
+}
@@ -0,0 +1,222 @@
+package edu.escuelaing.app;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hashed timing wheel that runs many coarse timeouts on a single thread.
+ * Rearming a timeout that is already in the wheel only writes its volatile
+ * deadline. A timeout not yet in the wheel is pushed onto a stack linked
+ * through the timeouts themselves, so scheduling never allocates; only the
+ * slot lists grow, on the wheel thread, when a slot holds more timeouts than
+ * ever before. A timeout stays in its slot until the wheel reaches it; if its
+ * deadline moved later in the meantime it is simply placed again.
+ */
+
+public class TimingWheel {
+    private static final long DISARMED = Long.MAX_VALUE;
+    private static final TimingWheel INSTANCE = new TimingWheel(100, 512);
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<List<Timeout>> slots;
+    // Newly scheduled timeouts, linked through Timeout.nextAdded
+    private final AtomicReference<Timeout> added = new AtomicReference<>();
+    // Only touched by the wheel thread
+    private List<Timeout> spare = new ArrayList<>();
+
+    /**
+     * Constructor for TimingWheel. Starts the wheel thread.
+     *
+     * @param tickMillis the slot duration, which bounds how late a timeout fires
+     * @param slotCount  the number of slots, a power of two
+     */
+
+    public TimingWheel(long tickMillis, int slotCount) {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("Slot count must be a power of two: " + slotCount);
+        }
+        this.tickMillis = tickMillis;
+        this.mask = slotCount - 1;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+        Thread thread = new Thread(this::run, "timing-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Gets the wheel shared by all connections.
+     *
+     * @return the shared TimingWheel
+     */
+
+    public static TimingWheel getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the monotonic clock used for deadlines.
+     *
+     * @return the current time in milliseconds
+     */
+
+    public static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Arms a timeout, replacing any earlier deadline. A deadline moved earlier
+     * while the timeout is already in the wheel fires at the old slot, so
+     * callers that need that should rearm in short steps.
+     *
+     * @param timeout  the timeout to arm
+     * @param deadline the expiry time, on the {@link #now()} clock
+     */
+
+    public void schedule(Timeout timeout, long deadline) {
+        timeout.deadline = deadline;
+        if (Timeout.SCHEDULED.compareAndSet(timeout, false, true)) {
+            push(timeout);
+        }
+    }
+
+    /**
+     * Disarms a timeout. It is dropped when the wheel next reaches it.
+     *
+     * @param timeout the timeout to disarm
+     */
+
+    public void cancel(Timeout timeout) {
+        timeout.deadline = DISARMED;
+    }
+
+    /**
+     * Hands a timeout to the wheel thread. Only the caller that set its
+     * scheduled flag pushes it, so it is never on the stack twice.
+     */
+
+    private void push(Timeout timeout) {
+        Timeout head;
+        do {
+            head = added.get();
+            timeout.nextAdded = head;
+        } while (!added.compareAndSet(head, timeout));
+    }
+
+    private void run() {
+        long tick = Math.floorDiv(now(), tickMillis);
+        while (true) {
+            long sleep = (tick + 1) * tickMillis - now();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            long now = now();
+            Timeout timeout = added.getAndSet(null);
+            while (timeout != null) {
+                Timeout next = timeout.nextAdded;
+                timeout.nextAdded = null;
+                place(timeout, now);
+                timeout = next;
+            }
+            // Catch up on every slot passed since the last round
+            long last = Math.floorDiv(now, tickMillis);
+            for (long t = tick + 1; t <= last; t++) {
+                int index = (int) (t & mask);
+                List<Timeout> due = slots.get(index);
+                slots.set(index, spare);
+                for (int i = 0; i < due.size(); i++) {
+                    place(due.get(i), now);
+                }
+                due.clear();
+                spare = due;
+            }
+            tick = Math.max(tick, last);
+        }
+    }
+
+    /**
+     * Puts a timeout into the slot for its deadline, or fires it. A timeout
+     * rearmed while it fires, by expired() or another thread, stays scheduled
+     * throughout and is placed again straight away.
+     */
+
+    private void place(Timeout timeout, long now) {
+        while (true) {
+            long deadline = timeout.deadline;
+            if (deadline == DISARMED) {
+                timeout.scheduled = false;
+                // A caller that armed it meanwhile saw it scheduled and left it to us
+                if (timeout.deadline == DISARMED || !Timeout.SCHEDULED.compareAndSet(timeout, false, true)) {
+                    return;
+                }
+            } else if (deadline > now) {
+                // The current slot has been swept already, so the earliest is the next one
+                long tick = Math.max(Math.floorDiv(deadline, tickMillis), Math.floorDiv(now, tickMillis) + 1);
+                slots.get((int) (tick & mask)).add(timeout);
+                return;
+            } else if (Timeout.DEADLINE.compareAndSet(timeout, deadline, DISARMED)) {
+                try {
+                    timeout.expired(now);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            // Otherwise rearmed while being checked; look again
+        }
+    }
+
+    /**
+     * A reusable timeout. Subclasses decide in {@link #expired(long)} whether
+     * to act, or to schedule themselves again.
+     */
+
+    public abstract static class Timeout {
+        private static final VarHandle DEADLINE;
+        private static final VarHandle SCHEDULED;
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                DEADLINE = lookup.findVarHandle(Timeout.class, "deadline", long.class);
+                SCHEDULED = lookup.findVarHandle(Timeout.class, "scheduled", boolean.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private volatile long deadline = DISARMED;
+        // Set while the timeout is in a slot, on the added stack or firing
+        private volatile boolean scheduled;
+        // Only written by the pusher before publishing, and read by the wheel thread
+        private Timeout nextAdded;
+
+        /**
+         * Tells whether the timeout has a pending deadline.
+         *
+         * @return true if armed
+         */
+
+        public boolean isArmed() {
+            return deadline != DISARMED;
+        }
+
+        /**
+         * Called on the wheel thread once the deadline has passed. The timeout
+         * is disarmed by then. Implementations must not block.
+         *
+         * @param now the current time, on the {@link TimingWheel#now()} clock
+         */
+
+        protected abstract void expired(long now);
+    }
+}
@@ -0,0 +1,93 @@
+package edu.escuelaing.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * Server-side TLS configuration loaded from a keystore. Full handshakes are
+ * expensive, so sessions are kept for resumption: the JDK issues stateless
+ * session tickets by default, and TLS 1.2 clients without ticket support
+ * resume by session id from the server-side cache. Only HTTP/1.1 is offered
+ * through ALPN.
+ */
+
+public class TlsContext {
+    // Above the JDK's 20480: room for about 18 new sessions a second over the
+    // one hour timeout, at a few hundred bytes per cached session
+    private static final int SESSION_CACHE_SIZE = 65_536;
+    private static final int SESSION_TIMEOUT_SECONDS = 3600;
+    private static final String[] PROTOCOLS = { "TLSv1.3", "TLSv1.2" };
+    private static final String[] APPLICATION_PROTOCOLS = { "http/1.1" };
+
+    private final SSLContext context;
+
+    /**
+     * Constructor for TlsContext.
+     *
+     * @param keystoreFile the keystore holding the server key and certificate,
+     *                     in PKCS12 or JKS format
+     * @param password     the keystore and key password
+     * @throws IOException              if the keystore cannot be read
+     * @throws GeneralSecurityException if the keystore or key cannot be loaded
+     */
+
+    public TlsContext(String keystoreFile, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(new File(keystoreFile), password);
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+        context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Creates a server-mode engine for one connection.
+     *
+     * @return the configured SSLEngine
+     */
+
+    public SSLEngine createEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setProtocols(PROTOCOLS);
+        parameters.setApplicationProtocols(APPLICATION_PROTOCOLS);
+        parameters.setUseCipherSuitesOrder(true);
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    /**
+     * Wraps an accepted connection. The handshake runs on the first read or
+     * write, so it happens on the worker thread rather than the acceptor.
+     *
+     * @param client the accepted plain socket
+     * @return the TLS socket
+     * @throws IOException if the socket streams cannot be opened
+     */
+
+    public TlsSocket wrap(Socket client) throws IOException {
+        return new TlsSocket(client, createEngine());
+    }
+
+    /**
+     * Gets the server session cache, for tuning or inspecting resumption.
+     *
+     * @return the server session context
+     */
+
+    public SSLSessionContext getSessionContext() {
+        return context.getServerSessionContext();
+    }
+}
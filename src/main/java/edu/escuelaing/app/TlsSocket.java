@@ -0,0 +1,781 @@
+package edu.escuelaing.app;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * A TLS connection driven by an SSLEngine over a blocking socket. It extends
+ * Socket so HttpHandler, EventStream and WebSocket use it like a plain
+ * connection. Outgoing data is encrypted straight from the caller's array, and
+ * reads into an array that can hold a whole record are decrypted straight into
+ * it. The record buffers come from a shared pool and are sized for a full TLS
+ * record, so they never have to grow and be copied. Every other Socket method
+ * is delegated to the underlying connection.
+ */
+
+public class TlsSocket extends Socket {
+    private static final int MAX_POOLED = 256;
+    private static final ConcurrentLinkedQueue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int PENDING_SIZE = 512;
+
+    private final Socket socket;
+    private final SSLEngine engine;
+    private final InputStream socketIn;
+    private final OutputStream socketOut;
+    private final InputStream in = new TlsInputStream();
+    private final OutputStream out = new TlsOutputStream();
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean handshaken;
+    // Guarded by readLock: received records in write mode, decrypted data in read mode
+    private ByteBuffer netIn;
+    private ByteBuffer appIn;
+    // Guarded by writeLock
+    private ByteBuffer netOut;
+    // Single bytes written, sent as one record on the next array write or flush
+    private ByteBuffer pending;
+
+    /**
+     * Constructor for TlsSocket.
+     *
+     * @param socket the accepted plain socket
+     * @param engine a server-mode engine for this connection
+     * @throws IOException if the socket streams cannot be opened
+     */
+
+    TlsSocket(Socket socket, SSLEngine engine) throws IOException {
+        this.socket = socket;
+        this.engine = engine;
+        this.socketIn = socket.getInputStream();
+        this.socketOut = socket.getOutputStream();
+        SSLSession session = engine.getSession();
+        int bufferSize = Math.max(session.getPacketBufferSize(), session.getApplicationBufferSize());
+        netIn = borrow(bufferSize);
+        netOut = borrow(bufferSize);
+        appIn = borrow(bufferSize).flip();
+    }
+
+    /**
+     * Gets the protocol agreed through ALPN.
+     *
+     * @return the protocol, an empty string if the client did not use ALPN,
+     *         or null before the handshake
+     */
+
+    public String getApplicationProtocol() {
+        return engine.getApplicationProtocol();
+    }
+
+    /**
+     * Gets the TLS session, which tells whether it was resumed.
+     *
+     * @return the session
+     */
+
+    public SSLSession getSession() {
+        return engine.getSession();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (isClosed()) {
+            throw new SocketException("Socket is closed");
+        }
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (isClosed()) {
+            throw new SocketException("Socket is closed");
+        }
+        return out;
+    }
+
+    @Override
+    public void connect(SocketAddress endpoint) throws IOException {
+        socket.connect(endpoint);
+    }
+
+    @Override
+    public void connect(SocketAddress endpoint, int timeout) throws IOException {
+        socket.connect(endpoint, timeout);
+    }
+
+    @Override
+    public void bind(SocketAddress bindpoint) throws IOException {
+        socket.bind(bindpoint);
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return socket.getInetAddress();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return socket.getLocalAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return socket.getPort();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return socket.getRemoteSocketAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return socket.getLocalSocketAddress();
+    }
+
+    /**
+     * Gets the channel, which is always null: reading or writing a channel
+     * would bypass TLS.
+     *
+     * @return null
+     */
+
+    @Override
+    public SocketChannel getChannel() {
+        return null;
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) throws SocketException {
+        socket.setTcpNoDelay(on);
+    }
+
+    @Override
+    public boolean getTcpNoDelay() throws SocketException {
+        return socket.getTcpNoDelay();
+    }
+
+    @Override
+    public void setSoLinger(boolean on, int linger) throws SocketException {
+        socket.setSoLinger(on, linger);
+    }
+
+    @Override
+    public int getSoLinger() throws SocketException {
+        return socket.getSoLinger();
+    }
+
+    /**
+     * Urgent data would bypass the TLS record layer, so it is not supported.
+     *
+     * @param data the byte of data to send
+     * @throws SocketException always
+     */
+
+    @Override
+    public void sendUrgentData(int data) throws IOException {
+        throw new SocketException("Urgent data is not supported over TLS");
+    }
+
+    @Override
+    public void setOOBInline(boolean on) throws SocketException {
+        socket.setOOBInline(on);
+    }
+
+    @Override
+    public boolean getOOBInline() throws SocketException {
+        return socket.getOOBInline();
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) throws SocketException {
+        socket.setSoTimeout(timeout);
+    }
+
+    @Override
+    public int getSoTimeout() throws SocketException {
+        return socket.getSoTimeout();
+    }
+
+    @Override
+    public void setSendBufferSize(int size) throws SocketException {
+        socket.setSendBufferSize(size);
+    }
+
+    @Override
+    public int getSendBufferSize() throws SocketException {
+        return socket.getSendBufferSize();
+    }
+
+    @Override
+    public void setReceiveBufferSize(int size) throws SocketException {
+        socket.setReceiveBufferSize(size);
+    }
+
+    @Override
+    public int getReceiveBufferSize() throws SocketException {
+        return socket.getReceiveBufferSize();
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) throws SocketException {
+        socket.setKeepAlive(on);
+    }
+
+    @Override
+    public boolean getKeepAlive() throws SocketException {
+        return socket.getKeepAlive();
+    }
+
+    @Override
+    public void setTrafficClass(int tc) throws SocketException {
+        socket.setTrafficClass(tc);
+    }
+
+    @Override
+    public int getTrafficClass() throws SocketException {
+        return socket.getTrafficClass();
+    }
+
+    @Override
+    public void setReuseAddress(boolean on) throws SocketException {
+        socket.setReuseAddress(on);
+    }
+
+    @Override
+    public boolean getReuseAddress() throws SocketException {
+        return socket.getReuseAddress();
+    }
+
+    @Override
+    public void setPerformancePreferences(int connectionTime, int latency, int bandwidth) {
+        socket.setPerformancePreferences(connectionTime, latency, bandwidth);
+    }
+
+    @Override
+    public <T> Socket setOption(SocketOption<T> name, T value) throws IOException {
+        socket.setOption(name, value);
+        return this;
+    }
+
+    @Override
+    public <T> T getOption(SocketOption<T> name) throws IOException {
+        return socket.getOption(name);
+    }
+
+    @Override
+    public Set<SocketOption<?>> supportedOptions() {
+        return socket.supportedOptions();
+    }
+
+    /**
+     * Stops reading. Later reads see the end of the stream.
+     *
+     * @throws IOException if the socket is closed
+     */
+
+    @Override
+    public void shutdownInput() throws IOException {
+        socket.shutdownInput();
+    }
+
+    /**
+     * Sends any buffered bytes and close_notify, then half-closes the
+     * connection so the peer sees a clean end of stream.
+     *
+     * @throws IOException if writing fails or the socket is closed
+     */
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        if (!handshaken) {
+            handshake();
+        }
+        writeLock.lock();
+        try {
+            flushPending();
+            engine.closeOutbound();
+            wrap(EMPTY);
+        } finally {
+            writeLock.unlock();
+        }
+        socket.shutdownOutput();
+    }
+
+    @Override
+    public boolean isInputShutdown() {
+        return socket.isInputShutdown();
+    }
+
+    @Override
+    public boolean isOutputShutdown() {
+        return socket.isOutputShutdown();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    @Override
+    public boolean isBound() {
+        return socket.isBound();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get() || socket.isClosed();
+    }
+
+    /**
+     * Sends any buffered bytes and close_notify if no other thread is
+     * mid-write, closes the connection and returns the buffers to the pool.
+     */
+
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // A writer blocked on a slow client would hold the lock indefinitely
+            if (writeLock.tryLock()) {
+                try {
+                    if (handshaken) {
+                        flushPending();
+                    }
+                    engine.closeOutbound();
+                    wrap(EMPTY);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } catch (IOException ignored) {
+            // The peer may already be gone
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Closes the connection without close_notify, for a peer that has stopped
+     * reading. Unlike {@link #close()} it never blocks, and it also ends a
+     * close blocked writing close_notify.
+     *
+     * @throws IOException if closing the socket fails
+     */
+
+    public void abort() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            shutdown();
+        } else {
+            // Wakes a close() blocked in wrap; its own shutdown follows
+            socket.close();
+        }
+    }
+
+    /**
+     * Closes the socket and returns the buffers to the pool. Closing wakes any
+     * blocked reader or writer; buffers still in use by one are left to it.
+     */
+
+    private void shutdown() throws IOException {
+        socket.close();
+        if (readLock.tryLock()) {
+            try {
+                release(netIn);
+                release(appIn);
+                netIn = null;
+                appIn = null;
+            } finally {
+                readLock.unlock();
+            }
+        }
+        if (writeLock.tryLock()) {
+            try {
+                release(netOut);
+                netOut = null;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TlsSocket[" + socket + "]";
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        readLock.lock();
+        try {
+            if (!handshaken) {
+                handshake();
+            }
+            while (true) {
+                if (appIn == null) {
+                    throw new SocketException("Socket is closed");
+                }
+                if (appIn.hasRemaining()) {
+                    int n = Math.min(len, appIn.remaining());
+                    appIn.get(b, off, n);
+                    return n;
+                }
+                int produced;
+                if (len >= appIn.capacity()) {
+                    produced = unwrap(ByteBuffer.wrap(b, off, len));
+                    if (produced > 0) {
+                        return produced;
+                    }
+                } else {
+                    produced = unwrapToAppIn();
+                }
+                if (produced < 0) {
+                    return -1;
+                }
+                // Post-handshake messages such as a key update may need a reply
+                runHandshakeTasks();
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private int read() throws IOException {
+        readLock.lock();
+        try {
+            if (!handshaken) {
+                handshake();
+            }
+            while (true) {
+                if (appIn == null) {
+                    throw new SocketException("Socket is closed");
+                }
+                if (appIn.hasRemaining()) {
+                    return appIn.get() & 0xFF;
+                }
+                if (unwrapToAppIn() < 0) {
+                    return -1;
+                }
+                runHandshakeTasks();
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        if (!handshaken) {
+            handshake();
+        }
+        writeLock.lock();
+        try {
+            flushPending();
+            ByteBuffer src = ByteBuffer.wrap(b, off, len);
+            while (src.hasRemaining()) {
+                wrap(src);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Buffers a single byte rather than sending a record for it.
+     */
+
+    private void write(int b) throws IOException {
+        if (!handshaken) {
+            handshake();
+        }
+        writeLock.lock();
+        try {
+            if (pending == null) {
+                pending = ByteBuffer.allocate(PENDING_SIZE);
+            } else if (!pending.hasRemaining()) {
+                flushPending();
+            }
+            pending.put((byte) b);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (!handshaken) {
+            handshake();
+        }
+        writeLock.lock();
+        try {
+            flushPending();
+            socketOut.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Sends the buffered single bytes. Called with the write lock held.
+     */
+
+    private void flushPending() throws IOException {
+        if (pending == null || pending.position() == 0) {
+            return;
+        }
+        pending.flip();
+        try {
+            while (pending.hasRemaining()) {
+                wrap(pending);
+            }
+        } finally {
+            pending.clear();
+        }
+    }
+
+    private void handshake() throws IOException {
+        readLock.lock();
+        try {
+            if (handshaken) {
+                return;
+            }
+            if (appIn == null) {
+                throw new SocketException("Socket is closed");
+            }
+            engine.beginHandshake();
+            while (true) {
+                runHandshakeTasks();
+                SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+                if (status != SSLEngineResult.HandshakeStatus.NEED_UNWRAP
+                        && status != SSLEngineResult.HandshakeStatus.NEED_UNWRAP_AGAIN) {
+                    break;
+                }
+                if (unwrapToAppIn() < 0) {
+                    throw new EOFException("Connection closed during TLS handshake");
+                }
+            }
+            handshaken = true;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Runs delegated tasks and sends handshake messages until the engine is
+     * done or waits for the peer. Called with the read lock held.
+     */
+
+    private void runHandshakeTasks() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK -> {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                }
+                case NEED_WRAP -> {
+                    writeLock.lock();
+                    try {
+                        wrap(EMPTY);
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+                default -> {
+                    return;
+                }
+            }
+        }
+    }
+
+    private int unwrapToAppIn() throws IOException {
+        appIn.clear();
+        int produced = unwrap(appIn);
+        // appIn may have been replaced by a larger buffer
+        appIn.flip();
+        return produced;
+    }
+
+    /**
+     * Decrypts at most one record into dst, reading from the socket while the
+     * record is incomplete. Called with the read lock held.
+     *
+     * @return the bytes produced, possibly 0 for handshake records, or -1 once
+     *         the peer has closed
+     */
+
+    private int unwrap(ByteBuffer dst) throws IOException {
+        while (true) {
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, dst);
+            } finally {
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case OK -> {
+                    return result.bytesProduced();
+                }
+                case BUFFER_UNDERFLOW -> {
+                    if (fill() < 0) {
+                        return -1;
+                    }
+                }
+                case BUFFER_OVERFLOW -> {
+                    // Only when the peer's records outgrow the session's initial size
+                    int size = Math.max(engine.getSession().getApplicationBufferSize(), appIn.capacity() * 2);
+                    release(appIn);
+                    appIn = ByteBuffer.allocate(size);
+                    return 0;
+                }
+                default -> {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private int fill() throws IOException {
+        if (!netIn.hasRemaining()) {
+            int size = engine.getSession().getPacketBufferSize();
+            if (netIn.capacity() >= size) {
+                throw new SSLException("TLS record larger than " + size + " bytes");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(size);
+            larger.put(netIn.flip());
+            release(netIn);
+            netIn = larger;
+        }
+        int n = socketIn.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+        if (n > 0) {
+            netIn.position(netIn.position() + n);
+        }
+        return n;
+    }
+
+    /**
+     * Encrypts one record from src and writes it to the socket. Called with
+     * the write lock held.
+     */
+
+    private void wrap(ByteBuffer src) throws IOException {
+        if (netOut == null) {
+            throw new SocketException("Socket is closed");
+        }
+        while (true) {
+            netOut.clear();
+            SSLEngineResult result = engine.wrap(src, netOut);
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW -> {
+                    int size = Math.max(engine.getSession().getPacketBufferSize(), netOut.capacity() * 2);
+                    release(netOut);
+                    netOut = ByteBuffer.allocate(size);
+                    continue;
+                }
+                case CLOSED -> {
+                    if (src.hasRemaining()) {
+                        throw new SocketException("TLS connection closed");
+                    }
+                }
+                default -> {
+                    if (result.bytesConsumed() == 0 && result.bytesProduced() == 0 && src.hasRemaining()) {
+                        throw new SSLException("TLS engine cannot send while " + result.getHandshakeStatus());
+                    }
+                }
+            }
+            socketOut.write(netOut.array(), netOut.arrayOffset(), netOut.position());
+            return;
+        }
+    }
+
+    private static ByteBuffer borrow(int size) {
+        ByteBuffer buffer = POOL.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(size);
+        }
+        POOLED.decrementAndGet();
+        return buffer.capacity() >= size ? buffer.clear() : ByteBuffer.allocate(size);
+    }
+
+    private static void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (POOLED.incrementAndGet() <= MAX_POOLED) {
+            POOL.offer(buffer);
+        } else {
+            POOLED.decrementAndGet();
+        }
+    }
+
+    private final class TlsInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            return TlsSocket.this.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return TlsSocket.this.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            TlsSocket.this.close();
+        }
+    }
+
+    private final class TlsOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            TlsSocket.this.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            TlsSocket.this.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            TlsSocket.this.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            TlsSocket.this.close();
+        }
+    }
+}
@@ -1,13 +1,36 @@
 package edu.escuelaing.app;
 
+import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * web framework with REST support.
  */
 
 public class WebFramework {
+    // Worker threads are reused so each keeps its recycled Exchange
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool();
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+
+    /**
+     * JSON body of the /time endpoint.
+     */
+
+    record TimeMessage(String time, String message) {
+    }
+
+    /**
+     * JSON body of the /calc endpoint.
+     */
+
+    record CalcResult(double result, String operation, double[] operands) {
+    }
 
     /**
      * Registers a GET route.
@@ -20,6 +43,35 @@ public class WebFramework {
         Router.getInstance().addRoute(path, handler);
     }
 
+    /**
+     * Registers a Server-Sent Events stream. Clients that GET the path stay
+     * connected and receive every event sent through the returned stream.
+     *
+     * @param path the stream path
+     * @return the event stream to broadcast on
+     */
+
+    public static EventStream sse(String path) {
+        EventStream stream = new EventStream();
+        Router.getInstance().addEventStream(path, stream);
+        return stream;
+    }
+
+    /**
+     * Registers a WebSocket endpoint. GET requests to the path that ask for an
+     * upgrade are switched to the WebSocket protocol and served by the handler.
+     *
+     * @param path    the endpoint path
+     * @param handler the WebSocket handler
+     * @return the endpoint, which can broadcast to every open connection
+     */
+
+    public static WebSocketEndpoint websocket(String path, WebSocketHandler handler) {
+        WebSocketEndpoint endpoint = new WebSocketEndpoint(handler);
+        Router.getInstance().addWebSocket(path, endpoint);
+        return endpoint;
+    }
+
     /**
      * Sets the static files directory.
      * 
@@ -31,6 +83,75 @@ public class WebFramework {
         System.out.println("Static files configured for: " + path);
     }
 
+    /**
+     * Starts an HTTPS listener that serves the same routes as the HTTP one.
+     * TLS is handled in-process, so no terminating proxy is needed.
+     *
+     * @param keystoreFile     the keystore holding the server key and certificate
+     * @param keystorePassword the keystore and key password
+     * @param port             the port to listen on
+     * @throws IOException              if the keystore cannot be read or the
+     *                                  port cannot be bound
+     * @throws GeneralSecurityException if the keystore cannot be loaded
+     */
+
+    public static void secure(String keystoreFile, String keystorePassword, int port)
+            throws IOException, GeneralSecurityException {
+        TlsContext tls = new TlsContext(keystoreFile, keystorePassword.toCharArray());
+        ServerSocket server = new ServerSocket(port);
+        Thread acceptor = new Thread(() -> {
+            try (server) {
+                // The handshake runs on the worker thread on first read
+                accept(server, tls);
+            } catch (IOException e) {
+                System.err.println("HTTPS listener stopped: " + e.getMessage());
+            }
+        }, "https-acceptor");
+        acceptor.start();
+        System.out.println("Web Framework Server running on https://localhost:" + port);
+    }
+
+    /**
+     * Hands accepted connections to the workers until the server socket is
+     * closed. A connection that cannot be set up is closed on its own, and a
+     * failed accept, such as running out of file descriptors, is retried after
+     * a pause instead of stopping the listener.
+     *
+     * @param server the listening socket
+     * @param tls    the TLS configuration, or null for plain HTTP
+     */
+
+    private static void accept(ServerSocket server, TlsContext tls) {
+        while (!server.isClosed()) {
+            Socket client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+                System.err.println("Accept failed on port " + server.getLocalPort() + ": " + e.getMessage());
+                try {
+                    Thread.sleep(ACCEPT_RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+            try {
+                WORKERS.execute(new HttpHandler(tls == null ? client : tls.wrap(client), ""));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Dropping connection from " + client.getRemoteSocketAddress() + ": " + e);
+                try {
+                    client.close();
+                } catch (IOException ignored) {
+                    // Already gone
+                }
+            }
+        }
+    }
+
     /**
      * Main entry point for the web framework.
      * 
@@ -39,6 +160,9 @@ public class WebFramework {
      */
 
     public static void main(String[] args) throws Exception {
+        Json.register(TimeMessage.class);
+        Json.register(CalcResult.class);
+
         // Static files location
         staticfiles("/webroot");
 
@@ -52,11 +176,24 @@ public class WebFramework {
         get("/pi", (req, resp) -> String.valueOf(Math.PI));
 
         get("/time", (req, resp) -> {
-            resp.setContentType("application/json");
             String now = java.time.LocalDateTime.now().toString();
-            return "{\"time\": \"" + now + "\", \"message\": \"Current server time\"}";
+            resp.json(new TimeMessage(now, "Current server time"));
+            return null;
         });
 
+        // Pushes the time every second instead of having clients poll /time
+        EventStream timeStream = sse("/time/stream");
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "time-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> timeStream.send("time", java.time.LocalDateTime.now().toString()),
+                1, 1, TimeUnit.SECONDS);
+
+        // Relays every chat message to all connected clients
+        websocket("/chat", (socket, message) -> socket.getEndpoint().broadcast(message));
+
         get("/greet", (req, resp) -> {
             String name = req.getValues("name");
             String lang = req.getValues("lang");
@@ -76,8 +213,8 @@ public class WebFramework {
         get("/calc", (req, resp) -> {
             try {
                 String op = req.getValues("op");
-                double a = Double.parseDouble(req.getValues("a"));
-                double b = Double.parseDouble(req.getValues("b"));
+                double a = req.getDouble("a");
+                double b = req.getDouble("b");
                 double result;
 
                 switch (op) {
@@ -97,22 +234,24 @@ public class WebFramework {
                     }
                 }
 
-                resp.setContentType("application/json");
-                return "{\"result\": " + result + ", \"operation\": \"" + op +
-                        "\", \"operands\": [" + a + ", " + b + "]}";
+                resp.json(new CalcResult(result, op, new double[] { a, b }));
+                return null;
             } catch (NumberFormatException e) {
                 resp.setStatusCode(400);
                 return "Error: Invalid number format";
             }
         });
 
+        // HTTPS is enabled with -Dhttps.keystore=<file> -Dhttps.password=<password>
+        String keystore = System.getProperty("https.keystore");
+        if (keystore != null) {
+            secure(keystore, System.getProperty("https.password", ""), Integer.getInteger("https.port", 8443));
+        }
+
         int port = 8080;
         try (ServerSocket server = new ServerSocket(port)) {
             System.out.println("Web Framework Server running on http://localhost:" + port);
-            while (true) {
-                Socket client = server.accept();
-                new Thread(new HttpHandler(client, "")).start();
-            }
+            accept(server, null);
         }
     }
 }
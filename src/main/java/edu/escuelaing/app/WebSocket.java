@@ -0,0 +1,516 @@
+package edu.escuelaing.app;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DataFormatException;
+
+/**
+ * An open WebSocket connection. Messages are read on the thread that accepted
+ * the connection, reusing its {@link Exchange} buffers; sends may come from
+ * any thread and are serialized by a per-connection lock. Broadcasts and pings
+ * are queued instead on a {@link SendQueue} and written by its shared writer
+ * threads, so a peer that stops reading never blocks the sender. A peer whose queue fills
+ * up, or whose write stays blocked too long, is dropped.
+ */
+
+public class WebSocket {
+    private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+    private static final int COMPRESSION_THRESHOLD = 256;
+    private static final int COALESCE_LIMIT = 8192;
+    private static final int CLOSE_TIMEOUT_MILLIS = 5000;
+    private static final int SEND_QUEUE_CAPACITY = 64;
+    private static final long SEND_TIMEOUT_MILLIS = 5000;
+    private static final Message PING = new Message(WebSocketCodec.PING, new byte[0]);
+
+    private static final ThreadLocal<OutputBuffer> FRAME = ThreadLocal.withInitial(() -> new OutputBuffer(1024));
+    private static final ThreadLocal<OutputBuffer> PAYLOAD = ThreadLocal.withInitial(() -> new OutputBuffer(1024));
+    private static final ThreadLocal<OutputBuffer> COMPRESSED = ThreadLocal.withInitial(() -> new OutputBuffer(1024));
+
+    private final WebSocketEndpoint endpoint;
+    private final Socket client;
+    private final OutputStream out;
+    private final PerMessageDeflate deflate;
+    private final Object writeLock = new Object();
+    private final byte[] control = new byte[WebSocketCodec.MAX_CONTROL_PAYLOAD];
+    private final Outbound outbound = new Outbound();
+    private final AtomicBoolean aborted = new AtomicBoolean();
+    private CharsetDecoder utf8;
+
+    private volatile boolean closeSent;
+    private volatile long lastReceived = System.nanoTime();
+    private volatile long lastPing;
+    private int closeCode = 1006;
+    private String closeReason = "";
+
+    /**
+     * Constructor for WebSocket.
+     *
+     * @param endpoint the endpoint that accepted the connection
+     * @param client   the client socket
+     * @param out      the socket output stream
+     * @param deflate  the negotiated compression, or null
+     */
+
+    WebSocket(WebSocketEndpoint endpoint, Socket client, OutputStream out, PerMessageDeflate deflate) {
+        this.endpoint = endpoint;
+        this.client = client;
+        this.out = out;
+        this.deflate = deflate;
+    }
+
+    /**
+     * Sends a text message.
+     *
+     * @param message the message text
+     * @throws IOException if the connection is closed or the write fails
+     */
+
+    public void send(String message) throws IOException {
+        OutputBuffer payload = PAYLOAD.get();
+        payload.reset();
+        payload.writeUtf8(message);
+        sendMessage(WebSocketCodec.TEXT, payload.array(), 0, payload.size());
+    }
+
+    /**
+     * Sends a binary message.
+     *
+     * @param data the message bytes
+     * @throws IOException if the connection is closed or the write fails
+     */
+
+    public void send(byte[] data) throws IOException {
+        sendMessage(WebSocketCodec.BINARY, data, 0, data.length);
+    }
+
+    /**
+     * Starts a normal closure.
+     */
+
+    public void close() {
+        close(1000, "");
+    }
+
+    /**
+     * Starts the closing handshake. The connection ends once the peer answers
+     * or after five seconds.
+     *
+     * @param code   the close status code
+     * @param reason the close reason
+     */
+
+    public void close(int code, String reason) {
+        try {
+            sendClose(code, reason);
+            client.setSoTimeout(CLOSE_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            abort();
+        }
+    }
+
+    /**
+     * Checks whether the connection is still open for sending.
+     *
+     * @return true until a close frame has been sent
+     */
+
+    public boolean isOpen() {
+        return !closeSent && !client.isClosed();
+    }
+
+    /**
+     * Gets the endpoint this connection belongs to, for broadcasting.
+     *
+     * @return the WebSocket endpoint
+     */
+
+    public WebSocketEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Reads frames until the connection closes, dispatching complete messages
+     * to the endpoint's handler.
+     *
+     * @param exchange the exchange whose buffers hold the connection's input
+     */
+
+    void serve(Exchange exchange) {
+        WebSocketHandler handler = endpoint.getHandler();
+        OutputBuffer message = exchange.body();
+        ConnectionGuard guard = exchange.guard();
+        message.reset();
+        int messageOpcode = -1;
+        boolean messageCompressed = false;
+        try {
+            handler.onOpen(this);
+            while (true) {
+                guard.expectRead(Timeouts.Rule.IDLE);
+                int b0 = exchange.read();
+                // Once a frame has started, the rest of it must arrive in time
+                guard.expectRead(Timeouts.Rule.BODY_READ);
+                int b1 = exchange.read();
+                if (b1 < 0) {
+                    break;
+                }
+                boolean fin = (b0 & 0x80) != 0;
+                boolean rsv1 = (b0 & 0x40) != 0;
+                int opcode = b0 & 0x0F;
+                long length = b1 & 0x7F;
+                if (length == 126) {
+                    length = (readByte(exchange) << 8) | readByte(exchange);
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | readByte(exchange);
+                    }
+                }
+                if ((b1 & 0x80) == 0) {
+                    throw new ProtocolException(1002, "Client frames must be masked");
+                }
+                if ((b0 & 0x30) != 0) {
+                    throw new ProtocolException(1002, "Unexpected reserved bits");
+                }
+                int mask = (readByte(exchange) << 24) | (readByte(exchange) << 16)
+                        | (readByte(exchange) << 8) | readByte(exchange);
+                lastReceived = System.nanoTime();
+
+                if (opcode >= WebSocketCodec.CLOSE) {
+                    // A 64-bit length with the top bit set reads as negative
+                    if (!fin || rsv1 || length < 0 || length > WebSocketCodec.MAX_CONTROL_PAYLOAD) {
+                        throw new ProtocolException(1002, "Invalid control frame");
+                    }
+                    int len = (int) length;
+                    exchange.readFully(control, 0, len);
+                    guard.endRead();
+                    WebSocketCodec.unmask(control, 0, len, mask);
+                    if (!onControl(opcode, len)) {
+                        break;
+                    }
+                    continue;
+                }
+
+                if (opcode == WebSocketCodec.CONTINUATION) {
+                    if (messageOpcode < 0 || rsv1) {
+                        throw new ProtocolException(1002, "Unexpected continuation frame");
+                    }
+                } else if (opcode == WebSocketCodec.TEXT || opcode == WebSocketCodec.BINARY) {
+                    if (messageOpcode >= 0) {
+                        throw new ProtocolException(1002, "Expected continuation frame");
+                    }
+                    if (rsv1 && deflate == null) {
+                        throw new ProtocolException(1002, "Compression was not negotiated");
+                    }
+                    messageOpcode = opcode;
+                    messageCompressed = rsv1;
+                    message.reset();
+                } else {
+                    throw new ProtocolException(1002, "Unknown opcode " + opcode);
+                }
+                if (length < 0 || message.size() + length > MAX_MESSAGE_SIZE) {
+                    throw new ProtocolException(1009, "Message too big");
+                }
+
+                int len = (int) length;
+                int off = message.extend(len);
+                exchange.readFully(message.array(), off, len);
+                guard.endRead();
+                WebSocketCodec.unmask(message.array(), off, len, mask);
+                if (fin) {
+                    deliver(handler, messageOpcode, messageCompressed, message);
+                    messageOpcode = -1;
+                    message.reset();
+                }
+            }
+        } catch (ProtocolException e) {
+            closeCode = e.code;
+            closeReason = e.getMessage();
+            try {
+                sendClose(e.code, e.getMessage());
+            } catch (IOException ignored) {
+                // The connection is being dropped anyway
+            }
+        } catch (IOException e) {
+            // Peer went away without a closing handshake
+        } finally {
+            closeSent = true;
+            if (deflate != null) {
+                synchronized (writeLock) {
+                    deflate.end();
+                }
+            }
+            handler.onClose(this, closeCode, closeReason);
+        }
+    }
+
+    /**
+     * Queues a message for the shared writer threads, as used for broadcasts.
+     * The caller never waits on the peer; a peer that has fallen 64 messages
+     * behind is dropped instead.
+     * Messages are compressed when the connection negotiated it.
+     *
+     * @param message the message to send
+     */
+
+    void enqueue(Message message) {
+        if (!closeSent) {
+            outbound.offer(message);
+        }
+    }
+
+    /**
+     * Queues a ping, or drops the peer if the previous ping went unanswered.
+     * Never blocks, so one stalled peer cannot hold up pings to the others.
+     */
+
+    void keepAlive() {
+        long now = System.nanoTime();
+        if (lastPing != 0 && lastReceived - lastPing < 0) {
+            abort();
+            return;
+        }
+        lastPing = now;
+        enqueue(PING);
+    }
+
+    private boolean onControl(int opcode, int len) throws IOException {
+        switch (opcode) {
+            case WebSocketCodec.PING -> sendControl(WebSocketCodec.PONG, control, len);
+            case WebSocketCodec.PONG -> {
+                // lastReceived is already updated
+            }
+            case WebSocketCodec.CLOSE -> {
+                int code = 1005;
+                if (len == 1) {
+                    throw new ProtocolException(1002, "Invalid close payload");
+                }
+                if (len >= 2) {
+                    code = ((control[0] & 0xFF) << 8) | (control[1] & 0xFF);
+                    if (!WebSocketCodec.isValidCloseCode(code)) {
+                        throw new ProtocolException(1002, "Invalid close code " + code);
+                    }
+                    closeReason = decodeText(control, 2, len - 2);
+                }
+                closeCode = code;
+                if (!closeSent) {
+                    sendClose(code == 1005 ? 1000 : code, "");
+                }
+                return false;
+            }
+            default -> throw new ProtocolException(1002, "Unknown opcode " + opcode);
+        }
+        return true;
+    }
+
+    private void deliver(WebSocketHandler handler, int opcode, boolean compressed, OutputBuffer message)
+            throws IOException {
+        OutputBuffer data = message;
+        if (compressed) {
+            try {
+                data = deflate.decompress(message.array(), 0, message.size(), MAX_MESSAGE_SIZE);
+            } catch (DataFormatException e) {
+                throw new ProtocolException(1007, "Invalid compressed data");
+            } catch (PerMessageDeflate.MessageTooBigException e) {
+                throw new ProtocolException(1009, "Message too big");
+            }
+        }
+        if (opcode == WebSocketCodec.TEXT) {
+            handler.onMessage(this, decodeText(data.array(), 0, data.size()));
+        } else {
+            handler.onBinary(this, Arrays.copyOf(data.array(), data.size()));
+        }
+    }
+
+    private String decodeText(byte[] buf, int off, int len) throws ProtocolException {
+        if (utf8 == null) {
+            utf8 = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+        }
+        try {
+            return utf8.decode(ByteBuffer.wrap(buf, off, len)).toString();
+        } catch (CharacterCodingException e) {
+            throw new ProtocolException(1007, "Invalid UTF-8");
+        }
+    }
+
+    private void sendMessage(int opcode, byte[] payload, int off, int len) throws IOException {
+        synchronized (writeLock) {
+            if (closeSent) {
+                throw new IOException("WebSocket is closed");
+            }
+            boolean compressed = deflate != null && len >= COMPRESSION_THRESHOLD;
+            if (compressed) {
+                OutputBuffer buf = COMPRESSED.get();
+                buf.reset();
+                deflate.compress(payload, off, len, buf);
+                payload = buf.array();
+                off = 0;
+                len = buf.size();
+            }
+            // Large messages go out as a sequence of fragments
+            int frameOpcode = opcode;
+            do {
+                int fragment = Math.min(len, MAX_FRAME_SIZE);
+                boolean fin = fragment == len;
+                writeFrame(fin, compressed && frameOpcode == opcode, frameOpcode, payload, off, fragment);
+                frameOpcode = WebSocketCodec.CONTINUATION;
+                off += fragment;
+                len -= fragment;
+            } while (len > 0);
+            out.flush();
+        }
+    }
+
+    private void sendControl(int opcode, byte[] payload, int len) throws IOException {
+        synchronized (writeLock) {
+            if (closeSent) {
+                return;
+            }
+            writeFrame(true, false, opcode, payload, 0, len);
+            out.flush();
+        }
+    }
+
+    private void sendClose(int code, String reason) throws IOException {
+        synchronized (writeLock) {
+            if (closeSent) {
+                return;
+            }
+            OutputBuffer payload = PAYLOAD.get();
+            payload.reset();
+            payload.write(code >>> 8);
+            payload.write(code);
+            payload.writeUtf8(reason);
+            writeFrame(true, false, WebSocketCodec.CLOSE, payload.array(), 0, closePayloadLength(payload));
+            out.flush();
+            closeSent = true;
+        }
+    }
+
+    private void writeFrame(boolean fin, boolean compressed, int opcode, byte[] payload, int off, int len)
+            throws IOException {
+        OutputBuffer frame = FRAME.get();
+        frame.reset();
+        WebSocketCodec.writeHeader(frame, fin, compressed, opcode, len);
+        if (len <= COALESCE_LIMIT) {
+            frame.write(payload, off, len);
+            frame.writeTo(out);
+        } else {
+            frame.writeTo(out);
+            out.write(payload, off, len);
+        }
+    }
+
+    /**
+     * Limits a close payload to the control frame maximum without splitting
+     * a UTF-8 sequence in the reason.
+     */
+
+    static int closePayloadLength(OutputBuffer payload) {
+        int len = payload.size();
+        if (len <= WebSocketCodec.MAX_CONTROL_PAYLOAD) {
+            return len;
+        }
+        len = WebSocketCodec.MAX_CONTROL_PAYLOAD;
+        // Back off while the first excluded byte continues a sequence started before it
+        while (len > 2 && (payload.array()[len] & 0xC0) == 0x80) {
+            len--;
+        }
+        return len;
+    }
+
+    private static int readByte(Exchange exchange) throws IOException {
+        int b = exchange.read();
+        if (b < 0) {
+            throw new EOFException("Connection closed mid-frame");
+        }
+        return b;
+    }
+
+    /**
+     * Drops the connection without a closing handshake and without blocking.
+     *
+     * @return false if it had already been dropped
+     */
+
+    private boolean abort() {
+        closeSent = true;
+        if (!aborted.compareAndSet(false, true)) {
+            return false;
+        }
+        ConnectionGuard.abort(client);
+        return true;
+    }
+
+    /**
+     * A message queued for the writer threads.
+     *
+     * @param opcode  the message or control opcode
+     * @param payload the uncompressed payload, shared by every recipient
+     */
+
+    record Message(int opcode, byte[] payload) {
+    }
+
+    /**
+     * The connection's {@link SendQueue} of broadcasts and pings. An evicted
+     * connection is aborted without a closing handshake.
+     */
+
+    private final class Outbound extends SendQueue<Message> {
+        Outbound() {
+            super(SEND_QUEUE_CAPACITY, SEND_TIMEOUT_MILLIS);
+        }
+
+        @Override
+        void write(Message message) throws IOException {
+            byte[] payload = message.payload();
+            if (message.opcode() >= WebSocketCodec.CLOSE) {
+                sendControl(message.opcode(), payload, payload.length);
+            } else {
+                sendMessage(message.opcode(), payload, 0, payload.length);
+            }
+        }
+
+        @Override
+        void evict() {
+            clear();
+            if (abort()) {
+                endpoint.recordEviction();
+            }
+        }
+
+        @Override
+        void failed() {
+            // Messages left behind by a closing handshake are simply dropped
+            if (!closeSent) {
+                abort();
+            }
+        }
+    }
+
+    /**
+     * Protocol violation that ends the connection with the given close code.
+     */
+
+    private static class ProtocolException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int code;
+
+        ProtocolException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+}
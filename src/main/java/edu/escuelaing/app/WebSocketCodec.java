@@ -0,0 +1,93 @@
+package edu.escuelaing.app;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * WebSocket frame encoding and unmasking (RFC 6455). Server frames are never
+ * masked; client payloads are unmasked in place, eight bytes at a time.
+ */
+
+public final class WebSocketCodec {
+    public static final int CONTINUATION = 0x0;
+    public static final int TEXT = 0x1;
+    public static final int BINARY = 0x2;
+    public static final int CLOSE = 0x8;
+    public static final int PING = 0x9;
+    public static final int PONG = 0xA;
+
+    public static final int MAX_CONTROL_PAYLOAD = 125;
+    public static final int MAX_HEADER_LENGTH = 10;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private WebSocketCodec() {
+    }
+
+    /**
+     * Writes a server frame header.
+     *
+     * @param out        the destination buffer
+     * @param fin        whether this is the final fragment
+     * @param compressed whether to set RSV1 for a compressed message
+     * @param opcode     the frame opcode
+     * @param length     the payload length
+     */
+
+    public static void writeHeader(OutputBuffer out, boolean fin, boolean compressed, int opcode, long length) {
+        int b0 = opcode;
+        if (fin) {
+            b0 |= 0x80;
+        }
+        if (compressed) {
+            b0 |= 0x40;
+        }
+        out.write(b0);
+        if (length < 126) {
+            out.write((int) length);
+        } else if (length <= 0xFFFF) {
+            out.write(126);
+            out.write((int) (length >>> 8));
+            out.write((int) length);
+        } else {
+            out.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (length >>> shift));
+            }
+        }
+    }
+
+    /**
+     * XORs a payload with the client's masking key, in place.
+     *
+     * @param buf  the buffer holding the payload
+     * @param off  the payload offset
+     * @param len  the payload length
+     * @param mask the 32-bit masking key, first key byte most significant
+     */
+
+    public static void unmask(byte[] buf, int off, int len, int mask) {
+        long mask64 = ((mask & 0xFFFFFFFFL) << 32) | (mask & 0xFFFFFFFFL);
+        int i = 0;
+        for (; i + 8 <= len; i += 8) {
+            long word = (long) LONGS.get(buf, off + i);
+            LONGS.set(buf, off + i, word ^ mask64);
+        }
+        for (; i < len; i++) {
+            buf[off + i] ^= (byte) (mask >>> (24 - ((i & 3) << 3)));
+        }
+    }
+
+    /**
+     * Checks whether a close code may appear in a close frame.
+     *
+     * @param code the close code
+     * @return true if the code is valid on the wire
+     */
+
+    public static boolean isValidCloseCode(int code) {
+        return (code >= 1000 && code <= 1014 && code != 1004 && code != 1005 && code != 1006)
+                || (code >= 3000 && code <= 4999);
+    }
+}
@@ -0,0 +1,233 @@
+package edu.escuelaing.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A WebSocket route. Performs the opening handshake, tracks the open
+ * connections for broadcasting and pings them periodically so dead peers are
+ * detected and dropped. Broadcasts and pings are queued on each connection,
+ * so neither waits on a slow peer. Pinging only runs while the endpoint has
+ * open connections, so an idle endpoint holds no scheduled task.
+ */
+
+public class WebSocketEndpoint {
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final long PING_INTERVAL_SECONDS = 30;
+    private static final ScheduledThreadPoolExecutor PINGER = pinger();
+
+    private final WebSocketHandler handler;
+    private final Set<WebSocket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong evictions = new AtomicLong();
+    // Guarded by this
+    private ScheduledFuture<?> pinging;
+
+    /**
+     * Constructor for WebSocketEndpoint.
+     *
+     * @param handler the handler for this endpoint's connections
+     */
+
+    public WebSocketEndpoint(WebSocketHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Queues a text message for every open connection. The text is encoded
+     * once; each connection compresses it if it negotiated permessage-deflate,
+     * since every compressor keeps its own context.
+     *
+     * @param message the message text
+     */
+
+    public void broadcast(String message) {
+        broadcast(new WebSocket.Message(WebSocketCodec.TEXT, message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Queues a binary message for every open connection.
+     *
+     * @param data the message bytes, which must not change afterwards
+     */
+
+    public void broadcast(byte[] data) {
+        broadcast(new WebSocket.Message(WebSocketCodec.BINARY, data));
+    }
+
+    /**
+     * Gets the number of open connections.
+     *
+     * @return the connection count
+     */
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Gets how many connections were dropped for falling too far behind or
+     * for not reading.
+     *
+     * @return the eviction count
+     */
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Records a connection dropped by its send queue.
+     */
+
+    void recordEviction() {
+        evictions.incrementAndGet();
+    }
+
+    /**
+     * Tells whether the endpoint is pinging its connections.
+     *
+     * @return true while the endpoint has open connections
+     */
+
+    synchronized boolean isPinging() {
+        return pinging != null;
+    }
+
+    /**
+     * Tracks an open connection, starting the pings with the first one.
+     *
+     * @param socket the connection
+     */
+
+    synchronized void add(WebSocket socket) {
+        connections.add(socket);
+        if (pinging == null) {
+            pinging = PINGER.scheduleAtFixedRate(this::keepAlive, PING_INTERVAL_SECONDS, PING_INTERVAL_SECONDS,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops tracking a closed connection, stopping the pings with the last
+     * one so the pinger no longer holds the endpoint.
+     *
+     * @param socket the connection
+     */
+
+    synchronized void remove(WebSocket socket) {
+        connections.remove(socket);
+        if (connections.isEmpty() && pinging != null) {
+            pinging.cancel(false);
+            pinging = null;
+        }
+    }
+
+    /**
+     * Gets the handler for this endpoint.
+     *
+     * @return the WebSocket handler
+     */
+
+    public WebSocketHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Completes the opening handshake and serves the connection on the calling
+     * thread until it closes.
+     *
+     * @param client   the client socket
+     * @param out      the socket output stream
+     * @param exchange the exchange holding the parsed request
+     * @return false if the request is not a WebSocket upgrade
+     * @throws IOException if an I/O error occurs
+     */
+
+    boolean upgrade(Socket client, OutputStream out, Exchange exchange) throws IOException {
+        Request request = exchange.request();
+        String key = request.getHeader("Sec-WebSocket-Key");
+        if (key == null || !request.hasHeaderToken("Upgrade", "websocket")
+                || !request.hasHeaderToken("Connection", "upgrade")) {
+            return false;
+        }
+        OutputBuffer head = exchange.head();
+        if (!"13".equals(request.getHeader("Sec-WebSocket-Version"))) {
+            head.writeAscii("HTTP/1.1 426 Upgrade Required\r\n"
+                    + "Sec-WebSocket-Version: 13\r\nContent-Length: 0\r\n\r\n");
+            head.writeTo(out);
+            return true;
+        }
+
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate(request.getHeader("Sec-WebSocket-Extensions"));
+        head.writeAscii("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: ");
+        head.writeAscii(acceptKey(key));
+        if (deflate != null) {
+            head.writeAscii("\r\nSec-WebSocket-Extensions: ");
+            head.writeAscii(deflate.responseHeader());
+        }
+        head.writeAscii("\r\n\r\n");
+        head.writeTo(out);
+        out.flush();
+
+        WebSocket socket = new WebSocket(this, client, out, deflate);
+        add(socket);
+        try {
+            socket.serve(exchange);
+        } finally {
+            remove(socket);
+        }
+        return true;
+    }
+
+    /**
+     * Computes the Sec-WebSocket-Accept value for a client key.
+     *
+     * @param key the Sec-WebSocket-Key request header
+     * @return the accept value
+     */
+
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is required by every Java platform", e);
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor pinger() {
+        ScheduledThreadPoolExecutor pinger = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "websocket-ping");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // A cancelled task leaves the queue at once rather than at its next run
+        pinger.setRemoveOnCancelPolicy(true);
+        return pinger;
+    }
+
+    private void broadcast(WebSocket.Message message) {
+        for (WebSocket socket : connections) {
+            socket.enqueue(message);
+        }
+    }
+
+    private void keepAlive() {
+        for (WebSocket socket : connections) {
+            socket.keepAlive();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package edu.escuelaing.app;
+
+import java.io.IOException;
+
+/**
+ * Functional interface for handling WebSocket connections. Only text messages
+ * must be handled; the other callbacks default to doing nothing. All callbacks
+ * for one connection run on that connection's thread.
+ */
+
+@FunctionalInterface
+public interface WebSocketHandler {
+
+    /**
+     * Called when a complete text message arrives.
+     *
+     * @param socket  the connection
+     * @param message the message text
+     * @throws IOException if replying fails, which closes the connection
+     */
+
+    void onMessage(WebSocket socket, String message) throws IOException;
+
+    /**
+     * Called once the handshake has completed.
+     *
+     * @param socket the connection
+     * @throws IOException if sending fails, which closes the connection
+     */
+
+    default void onOpen(WebSocket socket) throws IOException {
+    }
+
+    /**
+     * Called when a complete binary message arrives.
+     *
+     * @param socket the connection
+     * @param data   the message bytes
+     * @throws IOException if replying fails, which closes the connection
+     */
+
+    default void onBinary(WebSocket socket, byte[] data) throws IOException {
+    }
+
+    /**
+     * Called after the connection has closed.
+     *
+     * @param socket the connection
+     * @param code   the close status code
+     * @param reason the close reason, possibly empty
+     */
+
+    default void onClose(WebSocket socket, int code, String reason) {
+    }
+}
@@ -0,0 +1,214 @@
+package edu.escuelaing.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for each {@link Timeouts} rule, with short deadlines over local
+ * sockets and a guard checked every 20 ms on a private wheel.
+ */
+
+public class ConnectionGuardTest {
+    private static final long CHECK_MILLIS = 20;
+    private static final long DEADLINE_MILLIS = 150;
+
+    private final Timeouts timeouts = Timeouts.getInstance();
+    private final TimingWheel wheel = new TimingWheel(10, 64);
+    private long[] saved;
+    private ServerSocket listener;
+    private Socket client;
+    private Socket accepted;
+    private ConnectionGuard guard;
+
+    @Before
+    public void connect() throws Exception {
+        saved = new long[] {
+                timeouts.getMillis(Timeouts.Rule.HEADER_READ), timeouts.getMillis(Timeouts.Rule.BODY_READ),
+                timeouts.getMillis(Timeouts.Rule.IDLE), timeouts.getMillis(Timeouts.Rule.WRITE),
+                timeouts.getMinReadRate(), timeouts.getMinReadRateGraceMillis() };
+        listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        client = new Socket();
+        // Small buffers so a client that stops reading blocks the server quickly
+        client.setReceiveBufferSize(4096);
+        client.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort()));
+        accepted = listener.accept();
+        accepted.setSendBufferSize(4096);
+        accepted.setSoTimeout(5000);
+        guard = new ConnectionGuard(accepted, wheel, CHECK_MILLIS);
+    }
+
+    @After
+    public void close() throws Exception {
+        guard.cancel();
+        timeouts.setHeaderReadMillis(saved[0]);
+        timeouts.setBodyReadMillis(saved[1]);
+        timeouts.setIdleMillis(saved[2]);
+        timeouts.setWriteMillis(saved[3]);
+        timeouts.setMinReadRate(saved[4], saved[5]);
+        client.close();
+        accepted.close();
+        listener.close();
+    }
+
+    /**
+     * Reads until the guard closes the connection, returning how long that
+     * took.
+     */
+
+    private long readUntilClosed(InputStream in) throws IOException {
+        long start = TimingWheel.now();
+        try {
+            while (in.read() >= 0) {
+                // Keep reading
+            }
+            fail("The guard should close the connection, not the client");
+        } catch (SocketException expected) {
+            // Closed by the guard
+        }
+        return TimingWheel.now() - start;
+    }
+
+    private void assertClosedByDeadline(Timeouts.Rule rule) throws Exception {
+        long closedBefore = timeouts.getClosedCount(rule);
+        guard.expectRead(rule);
+        long elapsed = readUntilClosed(guard.input(accepted.getInputStream()));
+        assertEquals(rule, guard.closedBy());
+        assertEquals(closedBefore + 1, timeouts.getClosedCount(rule));
+        assertTrue("Closed after " + elapsed + " ms", elapsed >= DEADLINE_MILLIS - CHECK_MILLIS);
+        assertTrue("Closed after " + elapsed + " ms", elapsed < DEADLINE_MILLIS + 1000);
+        assertTrue(accepted.isClosed());
+    }
+
+    @Test
+    public void testHeaderReadDeadline() throws Exception {
+        timeouts.setHeaderReadMillis(DEADLINE_MILLIS);
+        assertClosedByDeadline(Timeouts.Rule.HEADER_READ);
+    }
+
+    @Test
+    public void testBodyReadDeadline() throws Exception {
+        timeouts.setBodyReadMillis(DEADLINE_MILLIS);
+        assertClosedByDeadline(Timeouts.Rule.BODY_READ);
+    }
+
+    @Test
+    public void testIdleDeadline() throws Exception {
+        timeouts.setIdleMillis(DEADLINE_MILLIS);
+        assertClosedByDeadline(Timeouts.Rule.IDLE);
+    }
+
+    @Test
+    public void testMinReadRate() throws Exception {
+        timeouts.setHeaderReadMillis(10_000);
+        timeouts.setMinReadRate(1000, DEADLINE_MILLIS);
+        Thread trickle = new Thread(() -> {
+            try {
+                OutputStream out = client.getOutputStream();
+                // About 50 bytes a second
+                while (true) {
+                    out.write('x');
+                    Thread.sleep(20);
+                }
+            } catch (IOException | InterruptedException e) {
+                // Closed by the guard, or the test is over
+            }
+        });
+        trickle.start();
+        try {
+            guard.expectRead(Timeouts.Rule.HEADER_READ);
+            readUntilClosed(guard.input(accepted.getInputStream()));
+            assertEquals(Timeouts.Rule.MIN_READ_RATE, guard.closedBy());
+        } finally {
+            trickle.interrupt();
+        }
+    }
+
+    @Test
+    public void testSteadySenderKeepsTheConnection() throws Exception {
+        timeouts.setHeaderReadMillis(10_000);
+        timeouts.setMinReadRate(1000, 50);
+        guard.expectRead(Timeouts.Rule.HEADER_READ);
+        InputStream in = guard.input(accepted.getInputStream());
+        OutputStream out = client.getOutputStream();
+        byte[] chunk = new byte[100];
+        byte[] received = new byte[100];
+        // About 5000 bytes a second for half a second
+        for (int i = 0; i < 25; i++) {
+            out.write(chunk);
+            assertEquals(100, in.readNBytes(received, 0, received.length));
+            Thread.sleep(20);
+        }
+        assertNull(guard.closedBy());
+        assertFalse(accepted.isClosed());
+    }
+
+    @Test
+    public void testIdleIsExemptFromTheReadRate() throws Exception {
+        timeouts.setIdleMillis(10_000);
+        timeouts.setMinReadRate(1000, 50);
+        guard.expectRead(Timeouts.Rule.IDLE);
+        InputStream in = guard.input(accepted.getInputStream());
+        client.getOutputStream().write('x');
+        assertEquals('x', in.read());
+        Thread.sleep(300);
+        assertNull(guard.closedBy());
+    }
+
+    @Test
+    public void testWriteDeadline() throws Exception {
+        timeouts.setWriteMillis(DEADLINE_MILLIS);
+        long closedBefore = timeouts.getClosedCount(Timeouts.Rule.WRITE);
+        OutputStream out = guard.output(accepted.getOutputStream());
+        byte[] chunk = new byte[64 * 1024];
+        long start = TimingWheel.now();
+        try {
+            // The client never reads, so a write soon blocks
+            for (int i = 0; i < 1000; i++) {
+                out.write(chunk);
+            }
+            fail("The guard should close the blocked connection");
+        } catch (SocketException expected) {
+            // Closed by the guard
+        }
+        long elapsed = TimingWheel.now() - start;
+        assertEquals(Timeouts.Rule.WRITE, guard.closedBy());
+        assertEquals(closedBefore + 1, timeouts.getClosedCount(Timeouts.Rule.WRITE));
+        assertTrue("Closed after " + elapsed + " ms", elapsed >= DEADLINE_MILLIS - CHECK_MILLIS);
+    }
+
+    @Test
+    public void testEndedReadPhaseIsNotEnforced() throws Exception {
+        timeouts.setHeaderReadMillis(DEADLINE_MILLIS);
+        guard.expectRead(Timeouts.Rule.HEADER_READ);
+        guard.endRead();
+        Thread.sleep(DEADLINE_MILLIS * 2);
+        assertNull(guard.closedBy());
+        assertFalse(accepted.isClosed());
+    }
+
+    @Test
+    public void testCancelledGuardDoesNotClose() throws Exception {
+        timeouts.setHeaderReadMillis(DEADLINE_MILLIS);
+        guard.expectRead(Timeouts.Rule.HEADER_READ);
+        guard.cancel();
+        assertFalse(guard.isArmed());
+        Thread.sleep(DEADLINE_MILLIS * 2);
+        assertNull(guard.closedBy());
+        assertFalse(accepted.isClosed());
+    }
+}
@@ -0,0 +1,153 @@
+package edu.escuelaing.app;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Unit tests for Server-Sent Events encoding and delivery.
+ */
+
+public class EventStreamTest {
+
+    private static String encode(String event, String data) {
+        return new String(EventStream.encode(event, data), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testEncodeSplitsDataOnEveryLineEnding() {
+        assertEquals("data: plain\n\n", encode(null, "plain"));
+        assertEquals("data: a\ndata: b\ndata: c\ndata: d\n\n", encode(null, "a\nb\rc\r\nd"));
+        assertEquals("data: \ndata: \ndata: \n\n", encode(null, "\r\n\n"));
+        assertEquals("data: x\ndata: \n\n", encode(null, "x\r"));
+        assertEquals("event: tick\ndata: ñ€\n\n", encode("tick", "ñ€"));
+    }
+
+    @Test
+    public void testEncodeKeepsInjectedFieldsInsideData() {
+        assertEquals("data: ok\ndata: event: admin\ndata: id: 1\n\n", encode(null, "ok\revent: admin\r\nid: 1"));
+    }
+
+    @Test
+    public void testEventNameWithLineBreakIsRejected() {
+        for (String name : new String[] { "a\nb", "a\rb", "a\r\n" }) {
+            try {
+                new EventStream().send(name, "x");
+                fail("Expected IllegalArgumentException for " + name.replace("\r", "\\r").replace("\n", "\\n"));
+            } catch (IllegalArgumentException expected) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testNullDataIsRejected() {
+        try {
+            new EventStream().send("tick", null);
+            fail("Expected NullPointerException");
+        } catch (NullPointerException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testSubscriberIsDroppedWhenItsStreamThrows() throws Exception {
+        EventStream stream = new EventStream();
+        OutputStream broken = new OutputStream() {
+            private boolean headersSent;
+
+            @Override
+            public void write(int b) {
+                throw new IllegalStateException("Broken stream");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                if (headersSent) {
+                    throw new IllegalStateException("Broken stream");
+                }
+                headersSent = true;
+            }
+        };
+        try (Socket socket = new Socket()) {
+            stream.subscribe(socket, broken);
+            assertEquals(1, stream.getSubscriberCount());
+            stream.send("x");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (stream.getSubscriberCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, stream.getSubscriberCount());
+        }
+    }
+
+    @Test
+    public void testStalledSubscribersDoNotDelayOthers() throws Exception {
+        // More stalled clients than there are writer threads, and a queue that never fills
+        int stalledCount = Math.max(2, Runtime.getRuntime().availableProcessors()) + 1;
+        int events = 200;
+        EventStream stream = new EventStream(events + 1, 500);
+        List<Socket> sockets = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            for (int i = 0; i < stalledCount; i++) {
+                Socket stalled = new Socket();
+                stalled.setReceiveBufferSize(4096);
+                stalled.connect(server.getLocalSocketAddress());
+                sockets.add(stalled);
+                subscribe(stream, server, sockets);
+            }
+            Socket healthy = new Socket(server.getInetAddress(), server.getLocalPort());
+            sockets.add(healthy);
+            subscribe(stream, server, sockets);
+
+            CountDownLatch received = new CountDownLatch(events);
+            Thread reader = new Thread(() -> {
+                try {
+                    BufferedReader in = new BufferedReader(
+                            new InputStreamReader(healthy.getInputStream(), StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("data: ")) {
+                            received.countDown();
+                        }
+                    }
+                } catch (Exception ignored) {
+                    // Socket closed by the test
+                }
+            });
+            reader.start();
+
+            String data = "x".repeat(32 * 1024);
+            for (int i = 0; i < events; i++) {
+                stream.send(data);
+            }
+            assertTrue("Healthy subscriber starved by stalled ones", received.await(20, TimeUnit.SECONDS));
+            assertEquals(stalledCount, stream.getEvictionCount());
+            assertEquals(1, stream.getSubscriberCount());
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private static void subscribe(EventStream stream, ServerSocket server, List<Socket> sockets) throws Exception {
+        Socket accepted = server.accept();
+        accepted.setSendBufferSize(4096);
+        sockets.add(accepted);
+        stream.subscribe(accepted, accepted.getOutputStream());
+    }
+}
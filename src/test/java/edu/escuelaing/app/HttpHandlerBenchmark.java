@@ -0,0 +1,121 @@
+package edu.escuelaing.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark for the per-request cost of HttpHandler, run against an
+ * in-memory socket so only parsing, routing and response assembly are
+ * measured. Each iteration serves a whole connection, so the figures include
+ * the connection's ConnectionGuard and stream wrappers (144 bytes) as well as
+ * the request. Run with the GC profiler to see allocated bytes per request:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *     org.openjdk.jmh.Main HttpHandlerBenchmark -prof gc
+ * </pre>
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpHandlerBenchmark {
+
+    private MemorySocket piRequest;
+    private MemorySocket calcRequest;
+    private MemorySocket staticRequest;
+
+    @Setup
+    public void setup() {
+        WebFramework.get("/pi", (req, resp) -> String.valueOf(Math.PI));
+        WebFramework.get("/calc", (req, resp) -> {
+            double a = req.getDouble("a");
+            double b = req.getDouble("b");
+            return String.valueOf(a + b);
+        });
+        piRequest = new MemorySocket(request("/pi"));
+        calcRequest = new MemorySocket(request("/calc?op=add&a=5&b=3"));
+        staticRequest = new MemorySocket(request("/index.html"));
+    }
+
+    @Benchmark
+    public void pi() {
+        serve(piRequest);
+    }
+
+    @Benchmark
+    public void calc() {
+        serve(calcRequest);
+    }
+
+    @Benchmark
+    public void staticFile() {
+        serve(staticRequest);
+    }
+
+    private static void serve(MemorySocket socket) {
+        socket.in.reset();
+        new HttpHandler(socket, "").run();
+    }
+
+    private static byte[] request(String target) {
+        String raw = "GET " + target + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        return raw.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Unconnected socket whose streams replay a fixed request and count every
+     * written byte. It is created once per trial so the socket
+     * itself does not show up in the per-request allocation figures.
+     */
+
+    private static final class MemorySocket extends Socket {
+        private final ByteArrayInputStream in;
+        private final OutputStream out;
+        private long written;
+
+        MemorySocket(byte[] request) {
+            this.in = new ByteArrayInputStream(request);
+            this.out = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    written++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    written += len;
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package edu.escuelaing.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH comparison of {@link Json} against Jackson and the String concatenation
+ * the handlers used before. Jackson is a test-scope dependency only. Run like
+ * {@link HttpHandlerBenchmark}, optionally with {@code -prof gc}.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    public record Calc(double result, String operation, double[] operands) {
+    }
+
+    public record Order(long id, String customer, boolean paid, List<String> items, Map<String, Integer> quantities) {
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final OutputBuffer buffer = new OutputBuffer(1024);
+    private Calc calc;
+    private Order order;
+
+    @Setup
+    public void setup() {
+        Json.register(Calc.class);
+        Json.register(Order.class);
+        calc = new Calc(8.0, "add", new double[] { 5.0, 3.0 });
+        order = new Order(42L, "Cristian \"CP\" Polo", true,
+                List.of("keyboard", "mouse", "monitor"),
+                Map.of("keyboard", 1, "mouse", 2, "monitor", 1));
+    }
+
+    @Benchmark
+    public OutputBuffer calcJson() {
+        buffer.reset();
+        Json.write(calc, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] calcJackson() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(calc);
+    }
+
+    @Benchmark
+    public byte[] calcConcatenation() {
+        String json = "{\"result\": " + calc.result() + ", \"operation\": \"" + calc.operation()
+                + "\", \"operands\": [" + calc.operands()[0] + ", " + calc.operands()[1] + "]}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public OutputBuffer orderJson() {
+        buffer.reset();
+        Json.write(order, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] orderJackson() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(order);
+    }
+}
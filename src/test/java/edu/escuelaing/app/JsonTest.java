@@ -0,0 +1,245 @@
+package edu.escuelaing.app;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link Json}, checking exact output and parsing it back with
+ * Jackson.
+ */
+
+public class JsonTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public enum Status { ACTIVE, SUSPENDED }
+
+    public record Point(int x, int y) {
+    }
+
+    public record Shape(String name, List<Point> points, Map<String, Object> tags, Optional<String> label,
+            Status status, Point origin) {
+    }
+
+    public record Polygon(String name, List<Point> points, Status status, Point origin, double[] weights) {
+    }
+
+    public record Primitives(byte b, short s, int i, long l, float f, double d, boolean z, char c) {
+    }
+
+    private record Hidden(float ratio, char grade, int count, String note) {
+    }
+
+    private static String json(Object value) {
+        return Json.toJson(value);
+    }
+
+    @Test
+    public void testControlCharactersAreEscaped() {
+        assertEquals("\"\\b\\f\\n\\r\\t\"", json("\b\f\n\r\t"));
+        assertEquals("\"\\u0000\\u0001\\u001f\"", json("\u0000\u0001\u001f"));
+        StringBuilder all = new StringBuilder();
+        for (char c = 0; c < 0x20; c++) {
+            all.append(c);
+        }
+        assertEquals(all.toString(), parseString(json(all.toString())));
+        // DEL and the JavaScript line separators are valid unescaped in JSON
+        assertEquals("\"\u007f\u2028\"", json("\u007f\u2028"));
+    }
+
+    @Test
+    public void testQuoteBackslashAndSlash() {
+        assertEquals("\"say \\\"hi\\\"\"", json("say \"hi\""));
+        assertEquals("\"C:\\\\temp\\\\\"", json("C:\\temp\\"));
+        assertEquals("\"a/b\"", json("a/b"));
+        assertEquals("\"\"", json(""));
+    }
+
+    @Test
+    public void testMultiByteAndSurrogatePairs() {
+        assertEquals("\"ñ€😀\"", json("ñ€😀"));
+        byte[] utf8 = json("😀").getBytes(StandardCharsets.UTF_8);
+        assertEquals(6, utf8.length);
+        assertEquals("😀𝄞", parseString(json("😀𝄞")));
+    }
+
+    @Test
+    public void testLoneSurrogatesBecomeQuestionMarks() {
+        assertEquals("\"a?b\"", json("a\uD83Db"));
+        assertEquals("\"a?b\"", json("a\uDE00b"));
+        assertEquals("\"a?\"", json("a\uD83D"));
+        // A low surrogate followed by a high one is not a pair
+        assertEquals("\"??\"", json("\uDE00\uD83D"));
+        assertEquals("\"?😀\"", json("\uD83D\uD83D\uDE00"));
+    }
+
+    @Test
+    public void testRandomStringsRoundTrip() throws Exception {
+        Random random = new Random(42);
+        for (int n = 0; n < 500; n++) {
+            StringBuilder s = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                int kind = random.nextInt(5);
+                if (kind == 0) {
+                    s.append((char) random.nextInt(0x20));
+                } else if (kind == 1) {
+                    s.appendCodePoint(0x10000 + random.nextInt(0x100000));
+                } else if (kind == 2) {
+                    s.append("\"\\/".charAt(random.nextInt(3)));
+                } else {
+                    char c = (char) random.nextInt(0xD800);
+                    s.append(c);
+                }
+            }
+            String expected = s.toString();
+            assertEquals(expected, mapper.readValue(json(expected), String.class));
+        }
+    }
+
+    @Test
+    public void testIntegers() {
+        assertEquals("0", json(0));
+        assertEquals("-2147483648", json(Integer.MIN_VALUE));
+        assertEquals("2147483647", json(Integer.MAX_VALUE));
+        assertEquals("-9223372036854775808", json(Long.MIN_VALUE));
+        assertEquals("9223372036854775807", json(Long.MAX_VALUE));
+        assertEquals("-32768", json(Short.MIN_VALUE));
+        assertEquals("-128", json(Byte.MIN_VALUE));
+        assertEquals("12345678901234567890.5", json(new BigDecimal("12345678901234567890.5")));
+    }
+
+    @Test
+    public void testDoubles() {
+        assertEquals("1.0", json(1.0));
+        assertEquals("-5.0", json(-5.0));
+        assertEquals("0.0", json(0.0));
+        assertEquals("-0.0", json(-0.0));
+        assertEquals("0.1", json(0.1));
+        assertEquals("9999999.0", json(9999999.0));
+        assertEquals("1.0E7", json(1e7));
+        assertEquals("-1.0E7", json(-1e7));
+        assertEquals("1.0E-5", json(0.00001));
+        assertEquals("4.9E-324", json(Double.MIN_VALUE));
+        assertEquals("1.7976931348623157E308", json(Double.MAX_VALUE));
+        assertEquals("null", json(Double.NaN));
+        assertEquals("null", json(Double.POSITIVE_INFINITY));
+        assertEquals("null", json(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void testDoublesMatchDoubleToString() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            double value = switch (i % 3) {
+                case 0 -> random.nextInt(20_000_000) - 10_000_000;
+                case 1 -> random.nextDouble() * 1e6;
+                default -> Double.longBitsToDouble(random.nextLong());
+            };
+            if (Double.isFinite(value)) {
+                assertEquals(Double.toString(value), json(value));
+            }
+        }
+    }
+
+    @Test
+    public void testFloatsKeepTheirShortestForm() {
+        assertEquals("0.1", json(0.1f));
+        assertEquals("3.0", json(3f));
+        assertEquals("-0.0", json(-0.0f));
+        assertEquals("null", json(Float.NaN));
+        assertEquals("[0.1,2.5]", json(new float[] { 0.1f, 2.5f }));
+    }
+
+    @Test
+    public void testLiteralsAndArrays() {
+        assertEquals("null", json(null));
+        assertEquals("true", json(true));
+        assertEquals("false", json(false));
+        assertEquals("[]", json(new int[0]));
+        assertEquals("[1,-2,3]", json(new int[] { 1, -2, 3 }));
+        assertEquals("[1,9223372036854775807]", json(new long[] { 1, Long.MAX_VALUE }));
+        assertEquals("[0.5,null]", json(new double[] { 0.5, Double.NaN }));
+        assertEquals("[\"a\",null]", json(new String[] { "a", null }));
+        assertEquals("[true,false]", json(new boolean[] { true, false }));
+        assertEquals("[[1],[2,3]]", json(new int[][] { { 1 }, { 2, 3 } }));
+    }
+
+    @Test
+    public void testNestedRecordsMapsListsOptionalsAndEnums() throws Exception {
+        Map<String, Object> tags = new LinkedHashMap<>();
+        tags.put("color", "red");
+        tags.put("weight", 2.5);
+        tags.put("sizes", List.of(1, 2));
+        tags.put("none", null);
+        tags.put("nested", Map.of("k", Optional.of(Status.SUSPENDED)));
+        Shape shape = new Shape("tri\"angle", List.of(new Point(0, 0), new Point(3, -4)), tags,
+                Optional.empty(), Status.ACTIVE, null);
+        String expected = "{\"name\":\"tri\\\"angle\","
+                + "\"points\":[{\"x\":0,\"y\":0},{\"x\":3,\"y\":-4}],"
+                + "\"tags\":{\"color\":\"red\",\"weight\":2.5,\"sizes\":[1,2],\"none\":null,"
+                + "\"nested\":{\"k\":\"SUSPENDED\"}},"
+                + "\"label\":null,\"status\":\"ACTIVE\",\"origin\":null}";
+        assertEquals(expected, json(shape));
+        assertEquals("\"x\"", json(Optional.of("x")));
+
+        JsonNode parsed = mapper.readTree(json(shape));
+        assertEquals(-4, parsed.get("points").get(1).get("y").asInt());
+        assertEquals("SUSPENDED", parsed.get("tags").get("nested").get("k").asText());
+    }
+
+    @Test
+    public void testPrimitiveComponents() {
+        Primitives p = new Primitives((byte) -1, (short) 300, 7, -8L, 0.1f, 0.2, true, 'q');
+        assertEquals("{\"b\":-1,\"s\":300,\"i\":7,\"l\":-8,\"f\":0.1,\"d\":0.2,\"z\":true,\"c\":\"q\"}", json(p));
+    }
+
+    @Test
+    public void testInaccessibleRecordGoesThroughMethodHandles() {
+        assertEquals("{\"ratio\":0.1,\"grade\":\"\\\"\",\"count\":3,\"note\":null}",
+                json(new Hidden(0.1f, '"', 3, null)));
+    }
+
+    @Test
+    public void testMatchesJacksonForRecords() throws Exception {
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            points.add(new Point(i, -i * 7));
+        }
+        // Jackson needs an extra module for Optional, so the shape here has none
+        Polygon polygon = new Polygon("poly\n\u0001😀", points, Status.SUSPENDED, new Point(1, 1),
+                new double[] { 0.1, -2.5e-8, 1e21 });
+        Primitives p = new Primitives((byte) 1, (short) 2, 3, 4L, 5.5f, 6.25, false, 'x');
+        for (Object value : new Object[] { polygon, p, points, Map.of("k", Arrays.asList(1, null)) }) {
+            assertEquals(mapper.readTree(mapper.writeValueAsString(value)), mapper.readTree(json(value)));
+        }
+    }
+
+    @Test
+    public void testWriteAppendsToBuffer() {
+        OutputBuffer out = new OutputBuffer(4);
+        out.writeAscii("x=");
+        Json.write(List.of("ü", 1), out);
+        assertEquals("x=[\"ü\",1]", new String(out.array(), 0, out.size(), StandardCharsets.UTF_8));
+    }
+
+    private String parseString(String json) {
+        try {
+            return mapper.readValue(json, String.class);
+        } catch (Exception e) {
+            throw new AssertionError("Invalid JSON: " + json, e);
+        }
+    }
+}
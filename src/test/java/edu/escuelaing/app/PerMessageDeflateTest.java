@@ -0,0 +1,145 @@
+package edu.escuelaing.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Unit tests for the permessage-deflate extension.
+ */
+
+public class PerMessageDeflateTest {
+    private static final byte[] TAIL = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+    private static final byte[] MESSAGE = ("{\"user\":\"ana\",\"text\":\"the quick brown fox jumps over the lazy dog\"}")
+            .repeat(8).getBytes(StandardCharsets.UTF_8);
+
+    private static byte[] compress(PerMessageDeflate deflate, byte[] data) {
+        OutputBuffer out = new OutputBuffer(64);
+        deflate.compress(data, 0, data.length, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Inflates a server message the way a client does, appending the empty
+     * block the sender stripped.
+     */
+
+    private static byte[] inflate(Inflater inflater, byte[] compressed) throws Exception {
+        byte[] input = Arrays.copyOf(compressed, compressed.length + TAIL.length);
+        System.arraycopy(TAIL, 0, input, compressed.length, TAIL.length);
+        inflater.setInput(input);
+        byte[] out = new byte[64 * 1024];
+        int n = inflater.inflate(out);
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Deflates a client message, stripping the trailing empty block.
+     */
+
+    private static byte[] deflate(Deflater deflater, byte[] data) {
+        deflater.setInput(data);
+        byte[] out = new byte[64 * 1024];
+        int n = deflater.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+        return Arrays.copyOf(out, n - TAIL.length);
+    }
+
+    private static byte[] decompress(PerMessageDeflate deflate, byte[] compressed, int maxSize) throws Exception {
+        return deflate.decompress(compressed, 0, compressed.length, maxSize).toByteArray();
+    }
+
+    @Test
+    public void testNegotiation() {
+        assertNull(PerMessageDeflate.negotiate(null));
+        assertNull(PerMessageDeflate.negotiate("x-webkit-deflate-frame"));
+        assertEquals("permessage-deflate",
+                PerMessageDeflate.negotiate("permessage-deflate; client_max_window_bits").responseHeader());
+        assertEquals("permessage-deflate; server_no_context_takeover",
+                PerMessageDeflate.negotiate("permessage-deflate; server_no_context_takeover").responseHeader());
+        assertNull(PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits=10"));
+        assertNotNull(PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits=10, permessage-deflate"));
+        assertNull(PerMessageDeflate.negotiate("permessage-deflate; unknown_param"));
+    }
+
+    @Test
+    public void testCompressedMessagesKeepContextAcrossMessages() throws Exception {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate");
+        Inflater client = new Inflater(true);
+        try {
+            byte[] first = compress(deflate, MESSAGE);
+            byte[] second = compress(deflate, MESSAGE);
+            assertTrue(first.length < MESSAGE.length);
+            // The second copy is a back-reference into the first
+            assertTrue(second.length < first.length / 2);
+            assertArrayEquals(MESSAGE, inflate(client, first));
+            assertArrayEquals(MESSAGE, inflate(client, second));
+        } finally {
+            client.end();
+            deflate.end();
+        }
+    }
+
+    @Test
+    public void testServerNoContextTakeoverResetsEachMessage() throws Exception {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate; server_no_context_takeover");
+        try {
+            byte[] first = compress(deflate, MESSAGE);
+            byte[] second = compress(deflate, MESSAGE);
+            assertArrayEquals(first, second);
+            // Each message inflates on its own
+            for (byte[] message : new byte[][] { first, second }) {
+                Inflater client = new Inflater(true);
+                assertArrayEquals(MESSAGE, inflate(client, message));
+                client.end();
+            }
+        } finally {
+            deflate.end();
+        }
+    }
+
+    @Test
+    public void testDecompressesClientMessagesSharingContext() throws Exception {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate");
+        Deflater client = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            byte[] first = deflate(client, MESSAGE);
+            byte[] second = deflate(client, MESSAGE);
+            assertTrue(second.length < first.length / 2);
+            assertArrayEquals(MESSAGE, decompress(deflate, first, 1 << 20));
+            assertArrayEquals(MESSAGE, decompress(deflate, second, 1 << 20));
+            // An empty message is a single empty stored block, RFC 7692 section 7.2.3.6
+            assertEquals(0, decompress(deflate, new byte[] { 0x00 }, 1 << 20).length);
+        } finally {
+            client.end();
+            deflate.end();
+        }
+    }
+
+    @Test
+    public void testDecompressionLimit() throws Exception {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate");
+        Deflater client = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            byte[] bomb = deflate(client, new byte[256 * 1024]);
+            assertTrue(bomb.length < 1024);
+            try {
+                decompress(deflate, bomb, 64 * 1024);
+                fail("Expected MessageTooBigException");
+            } catch (PerMessageDeflate.MessageTooBigException expected) {
+                // Expected
+            }
+        } finally {
+            client.end();
+            deflate.end();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package edu.escuelaing.app;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Unit tests for the lazy query string parser.
+ */
+
+public class QueryStringTest {
+
+    private static QueryString query(String raw) {
+        QueryString query = new QueryString();
+        query.set(raw);
+        return query;
+    }
+
+    private static void assertIntFails(String raw) {
+        try {
+            query(raw).getInt("n");
+            fail("Expected NumberFormatException for " + raw);
+        } catch (NumberFormatException expected) {
+            // Expected
+        }
+    }
+
+    private static void assertDoubleFails(String raw) {
+        try {
+            query(raw).getDouble("x");
+            fail("Expected NumberFormatException for " + raw);
+        } catch (NumberFormatException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRepeatedKeys() {
+        QueryString query = query("a=1&b=x&a=2&a=3");
+        assertEquals(List.of("1", "2", "3"), query.getAll("a"));
+        assertEquals("3", query.get("a"));
+        assertEquals(3, query.getInt("a"));
+        assertEquals(List.of("x"), query.getAll("b"));
+        assertTrue(query.getAll("c").isEmpty());
+        assertNull(query.get("c"));
+    }
+
+    @Test
+    public void testKeysMatchWholeNames() {
+        QueryString query = query("ab=1&a=2&b=3");
+        assertEquals("2", query.get("a"));
+        assertEquals("1", query.get("ab"));
+        assertNull(query.get("abc"));
+    }
+
+    @Test
+    public void testPercentEscapes() {
+        assertEquals("a b+c", query("q=a+b%2Bc").get("q"));
+        assertEquals("x&y=z", query("q=x%26y%3Dz").get("q"));
+        // Two, three and four byte UTF-8 sequences
+        assertEquals("ñ€😀", query("q=%C3%B1%E2%82%AC%F0%9F%98%80").get("q"));
+        assertEquals("ü", query("q=%c3%bc").get("q"));
+        assertEquals("v", query("n%C3%A1me=v").get("náme"));
+        assertEquals("v", query("my+key=v").get("my key"));
+    }
+
+    @Test
+    public void testMalformedEscapesAreKeptLiterally() {
+        assertEquals("100%", query("q=100%").get("q"));
+        assertEquals("%4", query("q=%4").get("q"));
+        assertEquals("%zz", query("q=%zz").get("q"));
+        assertEquals("%4", query("q=%4&r=1").get("q"));
+        // A truncated UTF-8 sequence decodes to the replacement character
+        assertEquals("�", query("q=%E2%82").get("q"));
+    }
+
+    @Test
+    public void testEmptyValuesAndBareKeys() {
+        QueryString query = query("a=&flag&b=2&&=3");
+        assertEquals("", query.get("a"));
+        assertNull(query.get("flag"));
+        assertEquals("2", query.get("b"));
+        assertEquals("3", query.get(""));
+        assertNull(query("").get("a"));
+
+        Request request = new Request("GET", "/", "flag&a=");
+        assertEquals("", request.getValues("flag"));
+        assertEquals("", request.getValues("a"));
+        assertEquals(List.of(""), request.getAllValues("a"));
+    }
+
+    @Test
+    public void testGetInt() {
+        assertEquals(0, query("n=0").getInt("n"));
+        assertEquals(-42, query("n=-42").getInt("n"));
+        assertEquals(7, query("n=007").getInt("n"));
+        assertEquals(-5, query("n=%2D5").getInt("n"));
+        assertEquals(Integer.MAX_VALUE, query("n=2147483647").getInt("n"));
+        assertEquals(Integer.MIN_VALUE, query("n=-2147483648").getInt("n"));
+    }
+
+    @Test
+    public void testGetIntRejectsOverflowAndGarbage() {
+        assertIntFails("n=2147483648");
+        assertIntFails("n=-2147483649");
+        assertIntFails("n=99999999999");
+        assertIntFails("n=");
+        assertIntFails("n=-");
+        assertIntFails("n=12a");
+        assertIntFails("n=1.5");
+        assertIntFails("n=+5");
+        assertIntFails("m=1");
+    }
+
+    @Test
+    public void testGetDouble() {
+        assertEquals(0.1, query("x=0.1").getDouble("x"), 0);
+        assertEquals(-2.5, query("x=-2.5").getDouble("x"), 0);
+        assertEquals(3.0, query("x=3").getDouble("x"), 0);
+        assertEquals(1.0, query("x=1.").getDouble("x"), 0);
+        assertEquals(0.5, query("x=.5").getDouble("x"), 0);
+        assertEquals(1500.0, query("x=1.5e3").getDouble("x"), 0);
+        assertEquals(1e-7, query("x=1E-7").getDouble("x"), 0);
+        assertEquals(0.30000000000000004, query("x=0.30000000000000004").getDouble("x"), 0);
+        assertEquals(123456789012345.67, query("x=123456789012345.67").getDouble("x"), 0);
+        assertEquals(2.5, query("x=%32.5").getDouble("x"), 0);
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(query("x=-0").getDouble("x")));
+        assertTrue(Double.isNaN(query("x=NaN").getDouble("x")));
+    }
+
+    @Test
+    public void testGetDoubleMatchesParseDouble() {
+        String[] values = { "3.14159", "0.000001", "999999999999999", "123.456789012345", "-0.1", "42.0" };
+        for (String value : values) {
+            assertEquals(value, Double.parseDouble(value), query("x=" + value).getDouble("x"), 0);
+        }
+    }
+
+    @Test
+    public void testGetDoubleRejectsGarbage() {
+        assertDoubleFails("x=");
+        assertDoubleFails("x=-");
+        assertDoubleFails("x=.");
+        assertDoubleFails("x=1.2.3");
+        assertDoubleFails("x=abc");
+        assertDoubleFails("y=1");
+    }
+}
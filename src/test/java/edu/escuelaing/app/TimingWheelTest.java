@@ -0,0 +1,196 @@
+package edu.escuelaing.app;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Unit tests for TimingWheel, each on a private wheel with 10 ms ticks.
+ */
+
+public class TimingWheelTest {
+    private static final long TICK_MILLIS = 10;
+    // Sleep overshoot on a loaded machine, on top of the one tick the wheel allows
+    private static final long JITTER_MILLIS = 100;
+
+    /**
+     * Records when it fired, counting down a latch.
+     */
+
+    private static final class Recorder extends TimingWheel.Timeout {
+        private final List<Recorder> fired;
+        private final CountDownLatch latch;
+        private volatile long deadline;
+        private volatile long firedAt = -1;
+        private final AtomicInteger fires = new AtomicInteger();
+
+        Recorder(List<Recorder> fired, CountDownLatch latch) {
+            this.fired = fired;
+            this.latch = latch;
+        }
+
+        void schedule(TimingWheel wheel, long deadline) {
+            this.deadline = deadline;
+            wheel.schedule(this, deadline);
+        }
+
+        @Override
+        protected void expired(long now) {
+            firedAt = TimingWheel.now();
+            fires.incrementAndGet();
+            synchronized (fired) {
+                fired.add(this);
+            }
+            latch.countDown();
+        }
+    }
+
+    private static void assertOnTime(Recorder timeout) {
+        long late = timeout.firedAt - timeout.deadline;
+        assertTrue("Fired " + -late + " ms early", late >= 0);
+        assertTrue("Fired " + late + " ms late", late <= TICK_MILLIS + JITTER_MILLIS);
+    }
+
+    @Test
+    public void testFiresInDeadlineOrderNoEarlierThanTheDeadline() throws Exception {
+        TimingWheel wheel = new TimingWheel(TICK_MILLIS, 64);
+        int count = 100;
+        List<Recorder> fired = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(count);
+        List<Recorder> timeouts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            timeouts.add(new Recorder(fired, latch));
+        }
+        long start = TimingWheel.now();
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(3));
+        for (int i : order) {
+            timeouts.get(i).schedule(wheel, start + 50 + i * 3L);
+        }
+        assertTrue("All timeouts should fire", latch.await(5, TimeUnit.SECONDS));
+        for (Recorder timeout : timeouts) {
+            assertEquals(1, timeout.fires.get());
+            assertOnTime(timeout);
+        }
+        // Slots fire in order, but a deadline inside the tick being swept joins the next slot
+        synchronized (fired) {
+            for (int i = 1; i < fired.size(); i++) {
+                long previous = fired.get(i - 1).deadline / TICK_MILLIS;
+                long current = fired.get(i).deadline / TICK_MILLIS;
+                assertTrue("Tick " + previous + " fired before tick " + current, previous <= current + 1);
+            }
+        }
+    }
+
+    @Test
+    public void testDeadlineBeyondOneRotation() throws Exception {
+        // Eight slots are one rotation every 80 ms
+        TimingWheel wheel = new TimingWheel(TICK_MILLIS, 8);
+        CountDownLatch latch = new CountDownLatch(1);
+        Recorder timeout = new Recorder(new ArrayList<>(), latch);
+        timeout.schedule(wheel, TimingWheel.now() + 300);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertOnTime(timeout);
+    }
+
+    @Test
+    public void testRearmMovesTheDeadline() throws Exception {
+        TimingWheel wheel = new TimingWheel(TICK_MILLIS, 64);
+        CountDownLatch latch = new CountDownLatch(1);
+        Recorder timeout = new Recorder(new ArrayList<>(), latch);
+        timeout.schedule(wheel, TimingWheel.now() + 40);
+        timeout.schedule(wheel, TimingWheel.now() + 200);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertOnTime(timeout);
+        Thread.sleep(100);
+        assertEquals("A rearmed timeout fires once", 1, timeout.fires.get());
+        assertTrue(!timeout.isArmed());
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotFireAndCanBeReused() throws Exception {
+        TimingWheel wheel = new TimingWheel(TICK_MILLIS, 64);
+        CountDownLatch latch = new CountDownLatch(1);
+        Recorder timeout = new Recorder(new ArrayList<>(), latch);
+        timeout.schedule(wheel, TimingWheel.now() + 30);
+        wheel.cancel(timeout);
+        assertTrue(!timeout.isArmed());
+        assertTrue("A cancelled timeout should not fire", !latch.await(200, TimeUnit.MILLISECONDS));
+        timeout.schedule(wheel, TimingWheel.now() + 30);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertOnTime(timeout);
+    }
+
+    @Test
+    public void testRearmFromExpired() throws Exception {
+        TimingWheel wheel = new TimingWheel(TICK_MILLIS, 64);
+        int rounds = 5;
+        CountDownLatch latch = new CountDownLatch(rounds);
+        List<Long> lateness = Collections.synchronizedList(new ArrayList<>());
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout() {
+            private long deadline = TimingWheel.now() + 20;
+            private int remaining = rounds;
+
+            {
+                wheel.schedule(this, deadline);
+            }
+
+            @Override
+            protected void expired(long now) {
+                lateness.add(now - deadline);
+                latch.countDown();
+                if (--remaining > 0) {
+                    deadline = now + 20;
+                    wheel.schedule(this, deadline);
+                }
+            }
+        };
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(rounds, lateness.size());
+        for (long late : lateness) {
+            assertTrue(late >= 0 && late <= TICK_MILLIS + JITTER_MILLIS);
+        }
+        assertTrue(!timeout.isArmed());
+    }
+
+    @Test
+    public void testSchedulingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        TimingWheel wheel = new TimingWheel(TICK_MILLIS, 64);
+        long far = TimingWheel.now() + 60_000;
+        long allocated = 0;
+        // The first round warms up the scheduling paths; the second is measured
+        for (int round = 0; round < 2; round++) {
+            List<Recorder> timeouts = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                timeouts.add(new Recorder(new ArrayList<>(), new CountDownLatch(1)));
+            }
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (TimingWheel.Timeout timeout : timeouts) {
+                // A fresh timeout goes onto the added stack
+                wheel.schedule(timeout, far);
+            }
+            for (TimingWheel.Timeout timeout : timeouts) {
+                // One already in the wheel only has its deadline rewritten
+                wheel.schedule(timeout, far + 1);
+                wheel.cancel(timeout);
+                wheel.schedule(timeout, far + 2);
+            }
+            allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        }
+        assertTrue("Scheduling 1000 timeouts allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
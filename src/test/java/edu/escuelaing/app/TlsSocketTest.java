@@ -0,0 +1,409 @@
+package edu.escuelaing.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for TlsSocket against a JDK SSLSocket client on a local port.
+ */
+
+public class TlsSocketTest {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final ExecutorService SERVER = Executors.newCachedThreadPool();
+    private static File keystore;
+    private static TlsContext tls;
+
+    private ServerSocket listener;
+
+    @BeforeClass
+    public static void createKeystore() throws Exception {
+        keystore = File.createTempFile("tlssocket", ".p12");
+        keystore.delete();
+        keystore.deleteOnExit();
+        Process keytool = new ProcessBuilder(System.getProperty("java.home") + "/bin/keytool", "-genkeypair",
+                "-alias", "server", "-keyalg", "EC", "-dname", "CN=localhost", "-validity", "1",
+                "-keystore", keystore.getPath(), "-storetype", "PKCS12", "-storepass", new String(PASSWORD))
+                .inheritIO().start();
+        assertEquals("keytool should create the self-signed keystore", 0, keytool.waitFor());
+        tls = new TlsContext(keystore.getPath(), PASSWORD);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        SERVER.shutdownNow();
+    }
+
+    @Before
+    public void listen() throws Exception {
+        listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void close() throws Exception {
+        listener.close();
+    }
+
+    /**
+     * Creates a client context that trusts the self-signed certificate. Each
+     * context has its own client session cache.
+     *
+     * @param fullHandshakes counts server certificate checks, which a resumed
+     *                       handshake skips
+     */
+
+    private static SSLContext clientContext(AtomicInteger fullHandshakes) throws Exception {
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(KeyStore.getInstance(keystore, PASSWORD));
+        X509ExtendedTrustManager delegate = (X509ExtendedTrustManager) trust.getTrustManagers()[0];
+        TrustManager counting = new X509ExtendedTrustManager() {
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket)
+                    throws CertificateException {
+                fullHandshakes.incrementAndGet();
+                delegate.checkServerTrusted(chain, authType, socket);
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                    throws CertificateException {
+                fullHandshakes.incrementAndGet();
+                delegate.checkServerTrusted(chain, authType, engine);
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType)
+                    throws CertificateException {
+                fullHandshakes.incrementAndGet();
+                delegate.checkServerTrusted(chain, authType);
+            }
+
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket)
+                    throws CertificateException {
+                delegate.checkClientTrusted(chain, authType, socket);
+            }
+
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                    throws CertificateException {
+                delegate.checkClientTrusted(chain, authType, engine);
+            }
+
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType)
+                    throws CertificateException {
+                delegate.checkClientTrusted(chain, authType);
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return delegate.getAcceptedIssuers();
+            }
+        };
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[] { counting }, null);
+        return context;
+    }
+
+    private static SSLContext clientContext() throws Exception {
+        return clientContext(new AtomicInteger());
+    }
+
+    private SSLSocket connect(SSLContext context, String protocol) throws Exception {
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(),
+                listener.getLocalPort());
+        socket.setSoTimeout(5000);
+        SSLParameters parameters = socket.getSSLParameters();
+        parameters.setProtocols(new String[] { protocol });
+        socket.setSSLParameters(parameters);
+        return socket;
+    }
+
+    /**
+     * Accepts one connection and answers a single byte with another, returning
+     * the server side session.
+     */
+
+    private Future<SSLSession> echoOneByte() {
+        return SERVER.submit(() -> {
+            try (TlsSocket socket = tls.wrap(listener.accept())) {
+                socket.setSoTimeout(5000);
+                int b = socket.getInputStream().read();
+                OutputStream out = socket.getOutputStream();
+                out.write(b + 1);
+                out.flush();
+                return socket.getSession();
+            }
+        });
+    }
+
+    /**
+     * A connection whose writes block once stalled, like a client that has
+     * stopped reading, until the socket is closed.
+     */
+
+    private static final class StallingSocket extends Socket {
+        private final Socket socket;
+        private volatile boolean stalled;
+
+        StallingSocket(Socket socket) {
+            this.socket = socket;
+        }
+
+        void stall() {
+            stalled = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            OutputStream out = socket.getOutputStream();
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    synchronized (StallingSocket.this) {
+                        while (stalled && !socket.isClosed()) {
+                            try {
+                                StallingSocket.this.wait();
+                            } catch (InterruptedException e) {
+                                throw new InterruptedIOException();
+                            }
+                        }
+                    }
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    out.flush();
+                }
+            };
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            socket.close();
+            notifyAll();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return socket.isClosed();
+        }
+    }
+
+    private static SSLSession exchangeOneByte(SSLSocket socket) throws Exception {
+        socket.getOutputStream().write(41);
+        socket.getOutputStream().flush();
+        assertEquals(42, socket.getInputStream().read());
+        return socket.getSession();
+    }
+
+    @Test
+    public void testSingleByteReadsAndBufferedSingleByteWrites() throws Exception {
+        byte[] request = "hello".getBytes(StandardCharsets.US_ASCII);
+        byte[] reply = "world, one byte at a time".getBytes(StandardCharsets.US_ASCII);
+        Future<byte[]> server = SERVER.submit(() -> {
+            try (TlsSocket socket = tls.wrap(listener.accept())) {
+                socket.setSoTimeout(5000);
+                InputStream in = socket.getInputStream();
+                byte[] received = new byte[request.length];
+                for (int i = 0; i < received.length; i++) {
+                    received[i] = (byte) in.read();
+                }
+                OutputStream out = socket.getOutputStream();
+                for (byte b : reply) {
+                    out.write(b);
+                }
+                out.flush();
+                // Sends close_notify, so the client reads a clean end of stream
+                socket.shutdownOutput();
+                assertTrue(socket.isOutputShutdown());
+                assertEquals(-1, in.read());
+                return received;
+            }
+        });
+        try (SSLSocket client = connect(clientContext(), "TLSv1.3")) {
+            client.getOutputStream().write(request);
+            client.getOutputStream().flush();
+            assertArrayEquals(reply, client.getInputStream().readAllBytes());
+        }
+        // The client's close_notify ends the server's last read
+        assertArrayEquals(request, server.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSingleByteWritesAreSentOnClose() throws Exception {
+        Future<?> server = SERVER.submit(() -> {
+            try (TlsSocket socket = tls.wrap(listener.accept())) {
+                socket.getInputStream().read();
+                socket.getOutputStream().write('!');
+            }
+            return null;
+        });
+        try (SSLSocket client = connect(clientContext(), "TLSv1.3")) {
+            client.getOutputStream().write('?');
+            client.getOutputStream().flush();
+            assertEquals('!', client.getInputStream().read());
+            assertEquals(-1, client.getInputStream().read());
+            server.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSocketMethodsReachTheConnection() throws Exception {
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+                Socket accepted = listener.accept()) {
+            // Closed explicitly below, to check the close reaches the connection
+            TlsSocket socket = tls.wrap(accepted);
+            assertEquals(listener.getLocalPort(), socket.getLocalPort());
+            assertEquals(client.getLocalPort(), socket.getPort());
+            assertEquals(accepted.getLocalAddress(), socket.getLocalAddress());
+            assertEquals(accepted.getLocalSocketAddress(), socket.getLocalSocketAddress());
+            assertTrue(socket.isBound());
+            socket.setTcpNoDelay(true);
+            assertTrue(accepted.getTcpNoDelay());
+            socket.setKeepAlive(true);
+            assertTrue(accepted.getKeepAlive());
+            socket.setSoLinger(true, 3);
+            assertEquals(3, accepted.getSoLinger());
+            socket.setSoTimeout(1234);
+            assertEquals(1234, accepted.getSoTimeout());
+            assertFalse(socket.isInputShutdown());
+            socket.shutdownInput();
+            assertTrue(accepted.isInputShutdown());
+            assertTrue(socket.isInputShutdown());
+            try {
+                socket.sendUrgentData(1);
+                fail("Expected SocketException");
+            } catch (SocketException expected) {
+                // Expected
+            }
+            socket.close();
+            assertTrue(accepted.isClosed());
+        }
+    }
+
+    @Test
+    public void testGuardedCloseIsBoundedByTheWriteDeadline() throws Exception {
+        Timeouts timeouts = Timeouts.getInstance();
+        long savedWriteMillis = timeouts.getMillis(Timeouts.Rule.WRITE);
+        timeouts.setWriteMillis(150);
+        try (SSLSocket client = connect(clientContext(), "TLSv1.3");
+                StallingSocket accepted = new StallingSocket(listener.accept());
+                TlsSocket socket = tls.wrap(accepted)) {
+            Future<?> server = SERVER.submit(() -> {
+                int b = socket.getInputStream().read();
+                socket.getOutputStream().write(b + 1);
+                socket.getOutputStream().flush();
+                return null;
+            });
+            exchangeOneByte(client);
+            server.get(10, TimeUnit.SECONDS);
+            // The client stops reading, so close_notify cannot be written
+            accepted.stall();
+            ConnectionGuard guard = new ConnectionGuard(socket, new TimingWheel(10, 64), 20);
+            long start = TimingWheel.now();
+            SERVER.submit(guard::close).get(5, TimeUnit.SECONDS);
+            long elapsed = TimingWheel.now() - start;
+            assertEquals(Timeouts.Rule.WRITE, guard.closedBy());
+            assertTrue("Closed after " + elapsed + " ms", elapsed >= 150 - 20);
+            assertTrue(accepted.isClosed());
+        } finally {
+            timeouts.setWriteMillis(savedWriteMillis);
+        }
+    }
+
+    /**
+     * Connects twice with one client context and returns the server sessions.
+     */
+
+    private SSLSession[] connectTwice(SSLContext context, String protocol, SSLSession[] client) throws Exception {
+        SSLSession[] server = new SSLSession[2];
+        for (int i = 0; i < 2; i++) {
+            Future<SSLSession> accepted = echoOneByte();
+            try (SSLSocket socket = connect(context, protocol)) {
+                client[i] = exchangeOneByte(socket);
+                server[i] = accepted.get(10, TimeUnit.SECONDS);
+            }
+        }
+        return server;
+    }
+
+    @Test
+    public void testTls13SessionResumedWithTicket() throws Exception {
+        AtomicInteger fullHandshakes = new AtomicInteger();
+        SSLSession[] client = new SSLSession[2];
+        SSLSession[] server = connectTwice(clientContext(fullHandshakes), "TLSv1.3", client);
+        assertEquals("Only the first connection should verify the certificate", 1, fullHandshakes.get());
+        assertEquals("TLSv1.3", server[1].getProtocol());
+        // TLS 1.3 gives each connection a fresh id; the resumed session keeps its creation time
+        assertEquals(server[0].getCreationTime(), server[1].getCreationTime());
+        assertEquals(client[0].getCreationTime(), client[1].getCreationTime());
+    }
+
+    @Test
+    public void testTls12SessionResumedById() throws Exception {
+        AtomicInteger fullHandshakes = new AtomicInteger();
+        SSLSession[] client = new SSLSession[2];
+        SSLSession[] server = connectTwice(clientContext(fullHandshakes), "TLSv1.2", client);
+        assertEquals("Only the first connection should verify the certificate", 1, fullHandshakes.get());
+        assertEquals("TLSv1.2", server[1].getProtocol());
+        assertArrayEquals(server[0].getId(), server[1].getId());
+        assertArrayEquals(client[0].getId(), server[1].getId());
+    }
+
+    @Test
+    public void testNewClientContextHandshakesInFull() throws Exception {
+        AtomicInteger fullHandshakes = new AtomicInteger();
+        SSLSession[] client = new SSLSession[2];
+        connectTwice(clientContext(fullHandshakes), "TLSv1.3", client);
+        connectTwice(clientContext(fullHandshakes), "TLSv1.3", client);
+        assertEquals(2, fullHandshakes.get());
+    }
+}
@@ -1,9 +1,24 @@
 package edu.escuelaing.app;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.Socket;
 import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -92,9 +107,122 @@ public class WebFrameworkTest {
         assertTrue("Response should contain the sum", resp.contains("8"));
     }
 
+    @Test
+    public void testCalculatorEndpointWithDecimals() throws Exception {
+        String resp = getResponse("GET", "http://localhost:8080/calc?op=mul&a=-1.5&b=2");
+        assertTrue("Response should contain the product", resp.contains("-3.0"));
+    }
+
+    @Test
+    public void testCalculatorEndpointInvalidNumber() throws Exception {
+        int responseCode = getResponseCode("GET", "http://localhost:8080/calc?op=add&a=five&b=3");
+        assertEquals("Invalid operand should return 400", 400, responseCode);
+    }
+
+    @Test
+    public void testJsonBodyWithReturnedBodyIsRejected() throws Exception {
+        WebFramework.get("/test/json-and-body", (req, resp) -> {
+            resp.json(1);
+            return "also a body";
+        });
+        int responseCode = getResponseCode("GET", "http://localhost:8080/test/json-and-body");
+        assertEquals("Writing and returning a body should return 500", 500, responseCode);
+    }
+
     @Test
     public void testStaticFileServing() throws Exception {
         int responseCode = getResponseCode("GET", "http://localhost:8080/index.html");
         assertEquals("Static file should return 200 OK", 200, responseCode);
     }
+
+    @Test
+    public void testTimeEventStream() throws Exception {
+        try (Socket socket = new Socket("localhost", 8080)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /time/stream HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            String line;
+            while (!(line = in.readLine()).startsWith("event:")) {
+                if (line.startsWith("Content-Type")) {
+                    assertTrue("Should be an event stream", line.contains("text/event-stream"));
+                }
+            }
+            assertEquals("event: time", line);
+            assertTrue("Event should carry data", in.readLine().startsWith("data: "));
+        }
+    }
+
+    @Test
+    public void testChatWebSocketBroadcast() throws Exception {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        java.net.http.WebSocket.Listener listener = new java.net.http.WebSocket.Listener() {
+            @Override
+            public CompletionStage<?> onText(java.net.http.WebSocket ws, CharSequence data, boolean last) {
+                received.add(data.toString());
+                ws.request(1);
+                return null;
+            }
+        };
+        HttpClient client = HttpClient.newHttpClient();
+        java.net.http.WebSocket sender = client.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:8080/chat"), listener).get(5, TimeUnit.SECONDS);
+        sender.sendText("Hola WebSocket", true).get(5, TimeUnit.SECONDS);
+        assertEquals("Sender should receive the broadcast", "Hola WebSocket", received.poll(5, TimeUnit.SECONDS));
+        sender.sendClose(java.net.http.WebSocket.NORMAL_CLOSURE, "").get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testHttpsWithAlpn() throws Exception {
+        File keystore = File.createTempFile("webframework", ".p12");
+        keystore.delete();
+        keystore.deleteOnExit();
+        Process keytool = new ProcessBuilder(System.getProperty("java.home") + "/bin/keytool", "-genkeypair",
+                "-alias", "server", "-keyalg", "EC", "-dname", "CN=localhost", "-validity", "1",
+                "-keystore", keystore.getPath(), "-storetype", "PKCS12", "-storepass", "changeit")
+                .inheritIO().start();
+        assertEquals("keytool should create the self-signed keystore", 0, keytool.waitFor());
+        WebFramework.secure(keystore.getPath(), "changeit", 8443);
+
+        // The self-signed certificate is its own trust anchor
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(KeyStore.getInstance(keystore, "changeit".toCharArray()));
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trust.getTrustManagers(), null);
+        try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", 8443)) {
+            socket.setSoTimeout(5000);
+            SSLParameters parameters = socket.getSSLParameters();
+            parameters.setApplicationProtocols(new String[] { "h2", "http/1.1" });
+            socket.setSSLParameters(parameters);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /pi HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            assertEquals("ALPN should select HTTP/1.1", "http/1.1", socket.getApplicationProtocol());
+            String line;
+            while (!(line = in.readLine()).isEmpty()) {
+                // Skip headers
+            }
+            assertTrue("Response should contain PI value", in.readLine().startsWith("3.14"));
+        }
+    }
+
+    @Test
+    public void testSilentConnectionClosedByHeaderReadTimeout() throws Exception {
+        Timeouts timeouts = Timeouts.getInstance();
+        long previous = timeouts.getMillis(Timeouts.Rule.HEADER_READ);
+        long closedBefore = timeouts.getClosedCount(Timeouts.Rule.HEADER_READ);
+        timeouts.setHeaderReadMillis(1000);
+        try (Socket socket = new Socket("localhost", 8080)) {
+            socket.setSoTimeout(5000);
+            // Never send a request; the server should hang up on its own
+            assertEquals("Server should close the idle connection", -1, socket.getInputStream().read());
+            assertEquals(closedBefore + 1, timeouts.getClosedCount(Timeouts.Rule.HEADER_READ));
+        } finally {
+            timeouts.setHeaderReadMillis(previous);
+        }
+    }
 }
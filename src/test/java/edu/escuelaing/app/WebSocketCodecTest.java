@@ -0,0 +1,122 @@
+package edu.escuelaing.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Unit tests for WebSocket frame headers, unmasking and close payloads.
+ */
+
+public class WebSocketCodecTest {
+
+    private static byte[] header(boolean fin, boolean compressed, int opcode, long length) {
+        OutputBuffer out = new OutputBuffer(16);
+        WebSocketCodec.writeHeader(out, fin, compressed, opcode, length);
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testSevenBitLength() {
+        assertArrayEquals(bytes(0x81, 0), header(true, false, WebSocketCodec.TEXT, 0));
+        assertArrayEquals(bytes(0x82, 125), header(true, false, WebSocketCodec.BINARY, 125));
+        assertArrayEquals(bytes(0x01, 5), header(false, false, WebSocketCodec.TEXT, 5));
+        assertArrayEquals(bytes(0xC1, 5), header(true, true, WebSocketCodec.TEXT, 5));
+        assertArrayEquals(bytes(0x80, 3), header(true, false, WebSocketCodec.CONTINUATION, 3));
+    }
+
+    @Test
+    public void testSixteenBitLength() {
+        assertArrayEquals(bytes(0x82, 126, 0, 126), header(true, false, WebSocketCodec.BINARY, 126));
+        assertArrayEquals(bytes(0x82, 126, 0x01, 0x00), header(true, false, WebSocketCodec.BINARY, 256));
+        assertArrayEquals(bytes(0x82, 126, 0xFF, 0xFF), header(true, false, WebSocketCodec.BINARY, 0xFFFF));
+    }
+
+    @Test
+    public void testSixtyFourBitLength() {
+        assertArrayEquals(bytes(0x82, 127, 0, 0, 0, 0, 0, 1, 0, 0), header(true, false, WebSocketCodec.BINARY, 0x10000));
+        assertArrayEquals(bytes(0x82, 127, 0, 0, 0, 1, 0, 0, 0, 0),
+                header(true, false, WebSocketCodec.BINARY, 0x1_0000_0000L));
+        assertEquals(WebSocketCodec.MAX_HEADER_LENGTH, header(true, false, WebSocketCodec.BINARY, Long.MAX_VALUE).length);
+    }
+
+    @Test
+    public void testUnmaskAtEveryLengthAndOffset() {
+        int mask = 0x37FA213D;
+        byte[] key = bytes(0x37, 0xFA, 0x21, 0x3D);
+        for (int off = 0; off < 4; off++) {
+            for (int len = 0; len <= 33; len++) {
+                byte[] plain = new byte[len];
+                for (int i = 0; i < len; i++) {
+                    plain[i] = (byte) (i * 31 + off);
+                }
+                byte[] buf = new byte[off + len + 3];
+                for (int i = 0; i < len; i++) {
+                    buf[off + i] = (byte) (plain[i] ^ key[i & 3]);
+                }
+                WebSocketCodec.unmask(buf, off, len, mask);
+                assertArrayEquals("len " + len + " off " + off, plain, Arrays.copyOfRange(buf, off, off + len));
+                // Bytes around the payload are untouched
+                for (int i = off + len; i < buf.length; i++) {
+                    assertEquals(0, buf[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRfcMaskingExample() {
+        // "Hello" masked with 37 fa 21 3d, from RFC 6455 section 5.7
+        byte[] masked = bytes(0x7f, 0x9f, 0x4d, 0x51, 0x58);
+        WebSocketCodec.unmask(masked, 0, masked.length, 0x37FA213D);
+        assertEquals("Hello", new String(masked, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testCloseCodes() {
+        assertTrue(WebSocketCodec.isValidCloseCode(1000));
+        assertTrue(WebSocketCodec.isValidCloseCode(1011));
+        assertTrue(WebSocketCodec.isValidCloseCode(3000));
+        assertTrue(WebSocketCodec.isValidCloseCode(4999));
+        assertFalse(WebSocketCodec.isValidCloseCode(999));
+        assertFalse(WebSocketCodec.isValidCloseCode(1004));
+        assertFalse(WebSocketCodec.isValidCloseCode(1005));
+        assertFalse(WebSocketCodec.isValidCloseCode(1006));
+        assertFalse(WebSocketCodec.isValidCloseCode(1015));
+        assertFalse(WebSocketCodec.isValidCloseCode(2999));
+        assertFalse(WebSocketCodec.isValidCloseCode(5000));
+    }
+
+    @Test
+    public void testCloseReasonTruncatedOnCodePointBoundary() {
+        for (String unit : new String[] { "a", "é", "€", "😀" }) {
+            OutputBuffer payload = new OutputBuffer(512);
+            payload.write(0x03);
+            payload.write(0xE8);
+            payload.writeUtf8(unit.repeat(200));
+            int len = WebSocket.closePayloadLength(payload);
+            int unitLength = unit.getBytes(StandardCharsets.UTF_8).length;
+            assertTrue(len <= WebSocketCodec.MAX_CONTROL_PAYLOAD);
+            assertTrue(len > WebSocketCodec.MAX_CONTROL_PAYLOAD - unitLength);
+            assertEquals("Whole characters only for " + unit, 0, (len - 2) % unitLength);
+        }
+        OutputBuffer small = new OutputBuffer(16);
+        small.write(0x03);
+        small.write(0xE8);
+        small.writeUtf8("bye");
+        assertEquals(5, WebSocket.closePayloadLength(small));
+    }
+}
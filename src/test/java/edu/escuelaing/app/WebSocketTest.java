@@ -0,0 +1,408 @@
+package edu.escuelaing.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Frame-level tests for a WebSocket connection, serving scripted client
+ * frames from memory and decoding the frames the server writes back.
+ */
+
+public class WebSocketTest {
+    private static final int MASK = 0x0A1B2C3D;
+
+    private final List<String> events = new ArrayList<>();
+
+    /**
+     * A decoded server frame.
+     */
+
+    private record Frame(boolean fin, boolean compressed, int opcode, byte[] payload) {
+        String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+
+        int closeCode() {
+            return ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+        }
+    }
+
+    private final WebSocketHandler recorder = new WebSocketHandler() {
+        @Override
+        public void onMessage(WebSocket socket, String message) {
+            events.add("text:" + message);
+        }
+
+        @Override
+        public void onBinary(WebSocket socket, byte[] data) {
+            events.add("binary:" + data.length);
+        }
+
+        @Override
+        public void onClose(WebSocket socket, int code, String reason) {
+            events.add("close:" + code + ":" + reason);
+        }
+    };
+
+    private static byte[] frame(boolean fin, boolean rsv1, int opcode, byte[] payload, boolean masked) {
+        OutputBuffer out = new OutputBuffer(payload.length + 14);
+        WebSocketCodec.writeHeader(out, fin, rsv1, opcode, payload.length);
+        byte[] header = out.toByteArray();
+        if (masked) {
+            header[1] |= (byte) 0x80;
+        }
+        out.reset();
+        out.write(header);
+        if (masked) {
+            out.write(MASK >>> 24);
+            out.write(MASK >>> 16);
+            out.write(MASK >>> 8);
+            out.write(MASK);
+            byte[] body = payload.clone();
+            WebSocketCodec.unmask(body, 0, body.length, MASK);
+            out.write(body);
+        } else {
+            out.write(payload);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] frame(boolean fin, int opcode, String text) {
+        return frame(fin, false, opcode, text.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    private static byte[] close(int code, String reason) {
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[text.length + 2];
+        payload[0] = (byte) (code >>> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, text.length);
+        return frame(true, false, WebSocketCodec.CLOSE, payload, true);
+    }
+
+    private List<Frame> serve(WebSocketHandler handler, PerMessageDeflate deflate, byte[]... frames)
+            throws IOException {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            input.write(frame);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Socket socket = new Socket();
+        ConnectionGuard guard = new ConnectionGuard(socket);
+        Exchange exchange = Exchange.current();
+        exchange.reset(new ByteArrayInputStream(input.toByteArray()), guard);
+        try {
+            new WebSocket(new WebSocketEndpoint(handler), socket, output, deflate).serve(exchange);
+        } finally {
+            guard.cancel();
+            exchange.release();
+            socket.close();
+        }
+        return parse(output.toByteArray());
+    }
+
+    private static List<Frame> parse(byte[] data) {
+        List<Frame> frames = new ArrayList<>();
+        int pos = 0;
+        while (pos < data.length) {
+            int b0 = data[pos++] & 0xFF;
+            int b1 = data[pos++] & 0xFF;
+            assertEquals("Server frames are never masked", 0, b1 & 0x80);
+            long length = b1 & 0x7F;
+            int extra = length == 126 ? 2 : length == 127 ? 8 : 0;
+            if (extra > 0) {
+                length = 0;
+                for (int i = 0; i < extra; i++) {
+                    length = (length << 8) | (data[pos++] & 0xFF);
+                }
+            }
+            byte[] payload = Arrays.copyOfRange(data, pos, pos + (int) length);
+            pos += (int) length;
+            frames.add(new Frame((b0 & 0x80) != 0, (b0 & 0x40) != 0, b0 & 0x0F, payload));
+        }
+        return frames;
+    }
+
+    private static void assertClose(Frame frame, int code) {
+        assertEquals(WebSocketCodec.CLOSE, frame.opcode());
+        assertEquals(code, frame.closeCode());
+    }
+
+    @Test
+    public void testMaskedFramesAreDelivered() throws Exception {
+        List<Frame> frames = serve(recorder, null,
+                frame(true, WebSocketCodec.TEXT, "hello"), close(1000, ""));
+        assertEquals(List.of("text:hello", "close:1000:"), events);
+        assertEquals(1, frames.size());
+        assertClose(frames.get(0), 1000);
+    }
+
+    @Test
+    public void testUnmaskedFrameClosesWith1002() throws Exception {
+        List<Frame> frames = serve(recorder, null,
+                frame(true, false, WebSocketCodec.TEXT, "hello".getBytes(StandardCharsets.UTF_8), false));
+        assertEquals(1, frames.size());
+        assertClose(frames.get(0), 1002);
+        assertEquals(List.of("close:1002:Client frames must be masked"), events);
+    }
+
+    @Test
+    public void testSixteenAndSixtyFourBitLengths() throws Exception {
+        byte[] medium = new byte[300];
+        byte[] large = new byte[70_000];
+        Arrays.fill(large, (byte) 7);
+        List<Frame> frames = serve(recorder, null,
+                frame(true, false, WebSocketCodec.BINARY, medium, true),
+                frame(true, false, WebSocketCodec.BINARY, large, true),
+                close(1000, ""));
+        assertEquals(List.of("binary:300", "binary:70000", "close:1000:"), events);
+        assertClose(frames.get(0), 1000);
+    }
+
+    @Test
+    public void testLargeServerMessageUsesSixtyFourBitLengthsAndFragments() throws Exception {
+        byte[] data = new byte[100_000];
+        WebSocketHandler echo = (socket, message) -> socket.send(data);
+        List<Frame> frames = serve(echo, null, frame(true, WebSocketCodec.TEXT, "go"), close(1000, ""));
+        // Split into 64 KB fragments; the first one needs a 64-bit length
+        assertEquals(3, frames.size());
+        assertEquals(WebSocketCodec.BINARY, frames.get(0).opcode());
+        assertEquals(65_536, frames.get(0).payload().length);
+        assertFalse(frames.get(0).fin());
+        assertEquals(WebSocketCodec.CONTINUATION, frames.get(1).opcode());
+        assertEquals(100_000 - 65_536, frames.get(1).payload().length);
+        assertTrue(frames.get(1).fin());
+        assertClose(frames.get(2), 1000);
+    }
+
+    @Test
+    public void testFragmentedMessageWithInterleavedPing() throws Exception {
+        List<Frame> frames = serve(recorder, null,
+                frame(false, WebSocketCodec.TEXT, "Hel"),
+                frame(true, WebSocketCodec.PING, "are you there"),
+                frame(false, WebSocketCodec.CONTINUATION, "lo, "),
+                frame(true, WebSocketCodec.CONTINUATION, "world"),
+                close(1000, ""));
+        assertEquals(List.of("text:Hello, world", "close:1000:"), events);
+        assertEquals(WebSocketCodec.PONG, frames.get(0).opcode());
+        assertEquals("are you there", frames.get(0).text());
+        assertClose(frames.get(1), 1000);
+    }
+
+    @Test
+    public void testContinuationWithoutStartClosesWith1002() throws Exception {
+        List<Frame> frames = serve(recorder, null, frame(true, WebSocketCodec.CONTINUATION, "x"));
+        assertClose(frames.get(0), 1002);
+    }
+
+    @Test
+    public void testFragmentedControlFrameClosesWith1002() throws Exception {
+        List<Frame> frames = serve(recorder, null, frame(false, WebSocketCodec.PING, "x"));
+        assertClose(frames.get(0), 1002);
+    }
+
+    @Test
+    public void testNegativeControlFrameLengthClosesWith1002() throws Exception {
+        // A masked ping whose 64-bit length has the top bit set
+        byte[] ping = { (byte) 0x89, (byte) 0xFF, (byte) 0x80, 0, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0x0A, 0x1B, 0x2C, 0x3D };
+        List<Frame> frames = serve(recorder, null, ping);
+        assertEquals(1, frames.size());
+        assertClose(frames.get(0), 1002);
+        assertEquals(List.of("close:1002:Invalid control frame"), events);
+    }
+
+    @Test
+    public void testInvalidUtf8ClosesWith1007() throws Exception {
+        byte[] invalid = { 'o', 'k', (byte) 0xC3, (byte) 0x28 };
+        List<Frame> frames = serve(recorder, null, frame(true, false, WebSocketCodec.TEXT, invalid, true));
+        assertClose(frames.get(0), 1007);
+        assertEquals(List.of("close:1007:Invalid UTF-8"), events);
+    }
+
+    @Test
+    public void testInvalidUtf8SplitAcrossFragmentsClosesWith1007() throws Exception {
+        // A lone surrogate encoded as UTF-8 is not valid
+        byte[] first = { 'a', (byte) 0xED };
+        byte[] second = { (byte) 0xA0, (byte) 0x80 };
+        List<Frame> frames = serve(recorder, null,
+                frame(false, false, WebSocketCodec.TEXT, first, true),
+                frame(true, false, WebSocketCodec.CONTINUATION, second, true));
+        assertClose(frames.get(0), 1007);
+    }
+
+    @Test
+    public void testCloseCodeIsEchoed() throws Exception {
+        List<Frame> frames = serve(recorder, null, close(4001, "going away"));
+        assertEquals(1, frames.size());
+        assertClose(frames.get(0), 4001);
+        assertEquals(List.of("close:4001:going away"), events);
+    }
+
+    @Test
+    public void testEmptyCloseIsAnsweredWithNormalClosure() throws Exception {
+        List<Frame> frames = serve(recorder, null, frame(true, false, WebSocketCodec.CLOSE, new byte[0], true));
+        assertClose(frames.get(0), 1000);
+        assertEquals(List.of("close:1005:"), events);
+    }
+
+    @Test
+    public void testInvalidCloseCodeClosesWith1002() throws Exception {
+        List<Frame> frames = serve(recorder, null, close(1005, ""));
+        assertClose(frames.get(0), 1002);
+    }
+
+    @Test
+    public void testCloseReasonIsCutOnCharacterBoundary() throws Exception {
+        WebSocketHandler closer = (socket, message) -> socket.close(4000, "€".repeat(60));
+        List<Frame> frames = serve(closer, null, frame(true, WebSocketCodec.TEXT, "bye"));
+        Frame close = frames.get(0);
+        assertClose(close, 4000);
+        assertTrue(close.payload().length <= WebSocketCodec.MAX_CONTROL_PAYLOAD);
+        String reason = new String(close.payload(), 2, close.payload().length - 2, StandardCharsets.UTF_8);
+        assertEquals("€".repeat(41), reason);
+    }
+
+    @Test
+    public void testCompressedMessagesWithContextTakeover() throws Exception {
+        String text = "{\"user\":\"ana\",\"text\":\"the quick brown fox jumps over the lazy dog\"}".repeat(8);
+        Deflater client = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        List<byte[]> compressed = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            client.setInput(text.getBytes(StandardCharsets.UTF_8));
+            byte[] out = new byte[4096];
+            int n = client.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+            compressed.add(Arrays.copyOf(out, n - 4));
+        }
+        client.end();
+        // The second message only makes sense with the first one's window
+        assertTrue(compressed.get(1).length < compressed.get(0).length / 2);
+
+        WebSocketHandler echo = (socket, message) -> {
+            events.add("text:" + message.length());
+            socket.send(message);
+        };
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate");
+        List<Frame> frames = serve(echo, deflate,
+                frame(true, true, WebSocketCodec.TEXT, compressed.get(0), true),
+                frame(true, true, WebSocketCodec.TEXT, compressed.get(1), true),
+                close(1000, ""));
+        assertEquals(List.of("text:" + text.length(), "text:" + text.length()), events);
+        assertTrue(frames.get(0).compressed());
+        assertTrue(frames.get(1).compressed());
+        assertTrue(frames.get(1).payload().length < frames.get(0).payload().length / 2);
+        assertClose(frames.get(2), 1000);
+    }
+
+    @Test
+    public void testCompressedFrameWithoutNegotiationClosesWith1002() throws Exception {
+        List<Frame> frames = serve(recorder, null, frame(true, true, WebSocketCodec.TEXT, new byte[] { 1 }, true));
+        assertClose(frames.get(0), 1002);
+    }
+
+    @Test
+    public void testBinaryPayloadIsUnmasked() throws Exception {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        List<byte[]> received = new ArrayList<>();
+        WebSocketHandler handler = new WebSocketHandler() {
+            @Override
+            public void onMessage(WebSocket socket, String message) {
+            }
+
+            @Override
+            public void onBinary(WebSocket socket, byte[] bytes) {
+                received.add(bytes);
+            }
+        };
+        serve(handler, null, frame(true, false, WebSocketCodec.BINARY, data, true), close(1000, ""));
+        assertArrayEquals(data, received.get(0));
+    }
+    @Test
+    public void testQueuedMessagesAreCompressed() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Socket socket = new Socket();
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate");
+        WebSocket ws = new WebSocket(new WebSocketEndpoint(recorder), socket, output, deflate);
+        byte[] text = "broadcast ".repeat(100).getBytes(StandardCharsets.UTF_8);
+        ws.enqueue(new WebSocket.Message(WebSocketCodec.TEXT, text));
+        long deadline = System.currentTimeMillis() + 5000;
+        synchronized (output) {
+            while (output.size() == 0 && System.currentTimeMillis() < deadline) {
+                output.wait(10);
+            }
+        }
+        Frame frame = parse(output.toByteArray()).get(0);
+        assertTrue(frame.compressed());
+        Inflater client = new Inflater(true);
+        byte[] input = Arrays.copyOf(frame.payload(), frame.payload().length + 4);
+        input[input.length - 2] = (byte) 0xFF;
+        input[input.length - 1] = (byte) 0xFF;
+        client.setInput(input);
+        byte[] inflated = new byte[4096];
+        int n = client.inflate(inflated);
+        client.end();
+        assertArrayEquals(text, Arrays.copyOf(inflated, n));
+        socket.close();
+    }
+
+    @Test
+    public void testEndpointPingsOnlyWhileConnectionsAreOpen() throws Exception {
+        WebSocketEndpoint endpoint = new WebSocketEndpoint(recorder);
+        assertFalse(endpoint.isPinging());
+        try (Socket socket = new Socket()) {
+            WebSocket first = new WebSocket(endpoint, socket, new ByteArrayOutputStream(), null);
+            WebSocket second = new WebSocket(endpoint, socket, new ByteArrayOutputStream(), null);
+            endpoint.add(first);
+            endpoint.add(second);
+            assertTrue(endpoint.isPinging());
+            endpoint.remove(first);
+            assertTrue(endpoint.isPinging());
+            endpoint.remove(second);
+            assertFalse(endpoint.isPinging());
+            assertEquals(0, endpoint.getConnectionCount());
+        }
+    }
+
+    @Test
+    public void testQueuedMessagesNeverBlockOnStalledPeer() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket peer = new Socket()) {
+            peer.setReceiveBufferSize(4096);
+            peer.connect(server.getLocalSocketAddress());
+            Socket accepted = server.accept();
+            accepted.setSendBufferSize(4096);
+            WebSocketEndpoint endpoint = new WebSocketEndpoint(recorder);
+            WebSocket ws = new WebSocket(endpoint, accepted, accepted.getOutputStream(), null);
+            WebSocket.Message message = new WebSocket.Message(WebSocketCodec.BINARY, new byte[16 * 1024]);
+            long start = System.nanoTime();
+            // The peer never reads, so the queue fills and the peer is dropped
+            ws.keepAlive();
+            for (int i = 0; i < 1000; i++) {
+                ws.enqueue(message);
+            }
+            assertTrue("Sender waited on the peer", System.nanoTime() - start < 1_000_000_000L);
+            assertEquals(1, endpoint.getEvictionCount());
+            assertFalse(ws.isOpen());
+            assertTrue(accepted.isClosed());
+        }
+    }
+}